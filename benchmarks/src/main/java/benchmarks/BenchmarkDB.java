@@ -0,0 +1,122 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import utils.Contact;
+import utils.DB.Account;
+import utils.DB.DB;
+
+/**
+ * Prepares the data of the benchmarks. The DB is configured by the settings.config of the benchmarks, an
+ * in-memory H2 in MySQL mode by default, so no MySQL server is needed. Point masterDbUrl to a MySQL server to
+ * measure against it, the tables are only created if they don't exist. The H2 has no named locks, so the
+ * {@link utils.DB.Schema} migrations are disabled by SchemaMigrate=false.
+ *
+ * Run the benchmarks with the gc profiler to get the allocations per op (gc.alloc.rate.norm):
+ * mvn package && java -jar target/benchmarks.jar -prof gc
+ * @author Christian Chartron
+ *
+ */
+public final class BenchmarkDB {
+	public static final String ACCOUNT = "Benchmark";
+	public static final String PASSWORD = "Benchmark";
+
+	private BenchmarkDB() {
+	}
+
+	/**
+	 * Creates the tables and the benchmark {@link Account} if they don't exist.
+	 * @return The authenticated benchmark Account.
+	 */
+	public static synchronized Account setUp() throws Exception {
+		DB.getMasterDB(db -> {
+			db.execute("Create Table if not exists accounts("
+					+ "dbId int NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+					+ "mail varchar(100) NOT NULL, "
+					+ "name varchar(80) NOT NULL UNIQUE, "
+					+ "password char(40) NOT NULL)");
+			db.execute("Create Table if not exists contacts("
+					+ "dbId int NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+					+ "accId int NOT NULL, "
+					+ "firstname varchar(100), "
+					+ "lastname varchar(100), "
+					+ "city varchar(100), "
+					+ "zipCode varchar(30), "
+					+ "Unique(accId, firstname, lastname))");
+		});
+
+		Account acc = Account.load(ACCOUNT, PASSWORD);
+		if (acc == null) {
+			new Account(ACCOUNT, PASSWORD, "benchmark@test.it").commitChanges();
+			acc = Account.load(ACCOUNT, PASSWORD);
+		}
+		return acc;
+	}
+
+	/**
+	 * Inserts contacts named like the entries of the mock files, Vorname1 Nachname1 and so on.
+	 * @return The dbIds of the inserted contacts.
+	 */
+	public static int[] insertContacts(Account acc, int count) {
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(count);
+		for (int i = 1; i <= count; i++)
+			rows.add(contact(acc, "Vorname" + i, "Nachname" + i, "Stadt" + i, String.format("%05d", i)));
+
+		return DB.getMasterDB(db -> {
+			return db.insertBatch("contacts", rows);
+		});
+	}
+
+	public static Map<String, Object> contact(Account acc, String firstname, String lastname, String city,
+			String zipCode) {
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("accId", acc.getDbId());
+		row.put("firstname", firstname);
+		row.put("lastname", lastname);
+		row.put("city", city);
+		row.put("zipCode", zipCode);
+		return row;
+	}
+
+	/**
+	 * Deletes all contacts of the Account and clears the {@link Contact} cache.
+	 */
+	public static void deleteContacts(Account acc) {
+		DB.getMasterDB(db -> {
+			db.delete("contacts", "accId=?", acc.getDbId());
+		});
+		Contact.clearCache();
+	}
+
+	/**
+	 * Resolves one of the mock files of the project, the benchmarks may be started in the project or in the
+	 * benchmarks directory.
+	 */
+	public static String mockFile(String name) {
+		File file = new File(name);
+		return file.exists() ? file.getAbsolutePath() : new File("..", name).getAbsolutePath();
+	}
+
+	/**
+	 * Generates a csv file like the mock files. It is deleted on exit.
+	 * @param lines The amount of entries.
+	 * @return The path of the file.
+	 */
+	public static String generate(int lines) throws IOException {
+		File file = File.createTempFile("benchmark", ".csv");
+		file.deleteOnExit();
+
+		try (FileWriter writer = new FileWriter(file)) {
+			writer.write("firstname;lastname;city;zipCode\n");
+			for (int i = 1; i <= lines; i++)
+				writer.write(String.format("Vorname%d;Nachname%d;Stadt%d;%05d\n", i, i, i, i % 100000));
+		}
+		return file.getAbsolutePath();
+	}
+}
@@ -0,0 +1,74 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.Contact;
+import utils.DB.Account;
+
+/**
+ * {@link Contact#load(Account, String, String)} of existing and missing contacts. With cached=false the
+ * cache is cleared before every load, so each load is a DB round trip.
+ * @author Christian Chartron
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContactBenchmark {
+	@Param({ "10000" })
+	public int contacts;
+
+	@Param({ "true", "false" })
+	public boolean cached;
+
+	private Account acc;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		acc = BenchmarkDB.setUp();
+		BenchmarkDB.deleteContacts(acc);
+		BenchmarkDB.insertContacts(acc, contacts);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchmarkDB.deleteContacts(acc);
+	}
+
+	private int nextIndex() {
+		next = next < contacts ? next + 1 : 1;
+		if (!cached)
+			Contact.clearCache();
+		return next;
+	}
+
+	@Benchmark
+	public Contact loadExisting() {
+		int i = nextIndex();
+		return Contact.load(acc, "Vorname" + i, "Nachname" + i);
+	}
+
+	@Benchmark
+	public Contact loadMissing() {
+		int i = nextIndex();
+		return Contact.load(acc, "Missing" + i, "Nachname" + i);
+	}
+}
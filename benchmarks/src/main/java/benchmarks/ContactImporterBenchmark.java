@@ -0,0 +1,69 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.ContactImporter;
+import utils.DB.Account;
+
+/**
+ * End to end {@link ContactImporter#run()} of a whole file into an empty contacts table. One op is one
+ * import, the contacts are deleted before every op.
+ * @author Christian Chartron
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ContactImporterBenchmark {
+	@Param({ "mock.csv", "mock4.csv", "generated" })
+	public String file;
+
+	@Param({ "100000" })
+	public int generatedLines;
+
+	private Account acc;
+	private String path;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		acc = BenchmarkDB.setUp();
+		path = "generated".equals(file) ? BenchmarkDB.generate(generatedLines) : BenchmarkDB.mockFile(file);
+	}
+
+	/**
+	 * An import takes milliseconds, so the cost of a per invocation setup doesn't distort the result.
+	 */
+	@Setup(Level.Invocation)
+	public void deleteContacts() {
+		BenchmarkDB.deleteContacts(acc);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchmarkDB.deleteContacts(acc);
+	}
+
+	@Benchmark
+	public ContactImporter run() {
+		ContactImporter importer = new ContactImporter(acc, "benchmark@test.it", path);
+		importer.run();
+		return importer;
+	}
+}
@@ -0,0 +1,82 @@
+package benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import utils.CsvImport;
+import utils.CsvRow;
+
+/**
+ * Parses a whole file by a {@link CsvImport} which only consumes the fields of every entry. One op is one
+ * file, "generated" is a file with generatedLines entries.
+ * @author Christian Chartron
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvImportBenchmark {
+	@Param({ "mock.csv", "mock4.csv", "generated" })
+	public String file;
+
+	@Param({ "1000000" })
+	public int generatedLines;
+
+	private String path;
+
+	/**
+	 * Hands the fields of every entry to a {@link Blackhole}.
+	 */
+	private static class ParseOnlyImport extends CsvImport {
+		private final Blackhole blackhole;
+
+		ParseOnlyImport(String path, Blackhole blackhole) {
+			super(null, path);
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		protected List<String> handleEntry(CsvRow entry) {
+			for (int i = 0; i < entry.size(); i++)
+				blackhole.consume(entry.get(i));
+			return Collections.emptyList();
+		}
+
+		@Override
+		protected Map<String, Object> getSerializiationData() {
+			return getCheckpoint();
+		}
+
+		void parse() {
+			runInternal();
+		}
+	}
+
+	@Setup
+	public void setUp() throws Exception {
+		path = "generated".equals(file) ? BenchmarkDB.generate(generatedLines) : BenchmarkDB.mockFile(file);
+	}
+
+	@Benchmark
+	public void parse(Blackhole blackhole) {
+		new ParseOnlyImport(path, blackhole).parse();
+	}
+}
@@ -0,0 +1,106 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.DB.Account;
+import utils.DB.DB;
+
+/**
+ * Single statements of {@link DB} against a contacts table holding the given amount of contacts.
+ * @author Christian Chartron
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DBBenchmark {
+	@Param({ "10000" })
+	public int contacts;
+
+	private Account acc;
+	private int[] ids;
+	private int next = 0;
+	private int inserted = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		acc = BenchmarkDB.setUp();
+		BenchmarkDB.deleteContacts(acc);
+		ids = BenchmarkDB.insertContacts(acc, contacts);
+	}
+
+	@TearDown(Level.Iteration)
+	public void deleteInserted() {
+		DB.getMasterDB(db -> {
+			db.delete("contacts", "accId=? AND lastname=?", acc.getDbId(), "Inserted");
+		});
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchmarkDB.deleteContacts(acc);
+	}
+
+	private int nextIndex() {
+		next = next + 1 < ids.length ? next + 1 : 0;
+		return next;
+	}
+
+	/**
+	 * Every insert gets a new name, the contacts are unique per account.
+	 */
+	@Benchmark
+	public int insert() {
+		Map<String, Object> data = BenchmarkDB.contact(acc, "Inserted" + (++inserted), "Inserted", "Stadt",
+				"00000");
+		return DB.getMasterDB(db -> {
+			return db.insert("contacts", data);
+		});
+	}
+
+	@Benchmark
+	public List<Map<String, Object>> selectById() {
+		int id = ids[nextIndex()];
+		return DB.getMasterDB(db -> {
+			return db.select("contacts", "*", "Where accId=? AND dbId=?", acc.getDbId(), id);
+		});
+	}
+
+	@Benchmark
+	public List<Map<String, Object>> selectByName() {
+		int i = nextIndex() + 1;
+		return DB.getMasterDB(db -> {
+			return db.select("contacts", "*", "Where firstname=? AND lastname=? AND accId=?",
+					"Vorname" + i, "Nachname" + i, acc.getDbId());
+		});
+	}
+
+	@Benchmark
+	public int update() {
+		int i = nextIndex();
+		Map<String, Object> data = BenchmarkDB.contact(acc, "Vorname" + (i + 1), "Nachname" + (i + 1),
+				"Stadt" + (i + 1), String.format("%05d", i + 1));
+		return DB.getMasterDB(db -> {
+			return db.update("contacts", "dbId=?", data, ids[i]);
+		});
+	}
+}
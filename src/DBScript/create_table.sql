@@ -1,5 +1,7 @@
 use sys;
 
+-- utils.DB.Schema applies these tables and indexes on startup and records them in schema_version.
+
 Create TABLE if not exists accounts(
 	dbId int NOT NULL AUTO_INCREMENT PRIMARY KEY,
         mail varchar(100) NOT NULL COLLATE utf8_bin,
@@ -17,7 +19,8 @@ CREATE TABLE if not exists contacts(
         firstname varchar(100),
         lastname varchar(100),
         city varchar(100),
-        zipCode varchar(30)
+        zipCode varchar(30),
+        UNIQUE KEY uq_contact(accId, firstname, lastname)
 );
 
 Create Table if not exists workerjobs(
@@ -32,8 +35,40 @@ Create Table if not exists workerjobs(
 		mail varchar(50) NOT NULL,
 		lockedUntil datetime NOT NULL default now(),
 		creationTime datetime NOT NULL default now(),
-		doneTime datetime(0)
+		doneTime datetime(0),
+		claimToken char(36),
+		parentId int,
+		partitioned tinyint NOT NULL default 0,
+		priority int NOT NULL default 0,
+		remainingWork bigint,
+		INDEX idx_claimToken(claimToken),
+		INDEX idx_parentId(parentId),
+		INDEX idx_pending(doneTime, partitioned, lockedUntil)
 );
 
+Create Table if not exists workerjobrejects(
+		dbId int NOT NULL AUTO_INCREMENT PRIMARY KEY,
+		jobId int NOT NULL,
+		lineNo bigint,
+		byteOffset bigint NOT NULL,
+		reason varchar(1024) NOT NULL,
+		entry text NOT NULL,
+		INDEX idx_jobId(jobId)
+);
+
+Create Table if not exists remittershares(
+		remitter int NOT NULL PRIMARY KEY,
+		weight int NOT NULL default 1,
+		virtualTime bigint NOT NULL default 0
+);
+
+Create Table if not exists jobqueue(
+		id int NOT NULL PRIMARY KEY,
+		version bigint NOT NULL default 0
+);
+
+insert ignore into jobqueue(id, version)
+values(1, 0);
+
 insert into accounts(mail, name, password)
 values('tester@test.it', 'Tester', 'Testpw');
\ No newline at end of file
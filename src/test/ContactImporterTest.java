@@ -2,6 +2,8 @@ package test;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.time.Duration;
 import java.time.Period;
 
@@ -42,5 +44,26 @@ public class ContactImporterTest {
 		
 		Helpers.deleteAllFrom("contacts");
 	}
+	
+	@Test
+	public void testUpsertSkipsDuplicates() throws Exception {
+		File file = File.createTempFile("contacts", ".csv");
+		file.deleteOnExit();
+		try (FileWriter writer = new FileWriter(file)) {
+			writer.write("firstname;lastname;city;zipCode\n");
+			writer.write("Vorname1;Nachname1;Stadt1;00001\n");
+			writer.write("Vorname2;Nachname2;Stadt2;00002\n");
+			writer.write("Vorname1;Nachname1;Stadt3;00003\n");
+			writer.write("vorname2;NACHNAME2;Stadt4;00004\n");
+		}
+		
+		new ContactImporter(acc, "chr.chart@gmail.com", file.getPath()).run();
+		assertEquals(2, Helpers.countFrom("contacts"));
+		
+		new ContactImporter(acc, "chr.chart@gmail.com", file.getPath()).run();
+		assertEquals(2, Helpers.countFrom("contacts"));
+		
+		Helpers.deleteAllFrom("contacts");
+	}
 
 }
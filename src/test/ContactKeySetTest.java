@@ -0,0 +1,54 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import utils.ContactKeySet;
+
+public class ContactKeySetTest {
+
+	@Test
+	public void testAddAndContains() {
+		ContactKeySet keys = new ContactKeySet(10000);
+
+		for (int i = 0; i < 5000; i++)
+			assertTrue(keys.add("Vorname" + i, "Nachname" + i));
+
+		assertEquals(5000, keys.size());
+		assertTrue(keys.contains("Vorname42", "Nachname42"));
+		assertFalse(keys.contains("Vorname42", "Nachname43"));
+		assertFalse(keys.add("Vorname42", "Nachname42"));
+		assertTrue(keys.isComplete());
+	}
+
+	@Test
+	public void testIgnoresCase() {
+		ContactKeySet keys = new ContactKeySet(10);
+		keys.add("Vorname1", "Nachname1");
+
+		assertTrue(keys.contains("vorname1", "NACHNAME1"));
+		assertFalse(keys.add("VORNAME1", "nachname1"));
+	}
+
+	@Test
+	public void testSeparatedNames() {
+		ContactKeySet keys = new ContactKeySet(10);
+		keys.add("ab", "c");
+
+		assertFalse(keys.contains("a", "bc"));
+	}
+
+	@Test
+	public void testMaxEntries() {
+		ContactKeySet keys = new ContactKeySet(3);
+
+		for (int i = 0; i < 5; i++)
+			keys.add("Vorname" + i, "Nachname" + i);
+
+		assertEquals(3, keys.size());
+		assertFalse(keys.isComplete());
+		assertTrue(keys.contains("Vorname0", "Nachname0"));
+		assertFalse(keys.contains("Vorname4", "Nachname4"));
+	}
+}
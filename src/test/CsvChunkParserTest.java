@@ -0,0 +1,85 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import utils.CsvChunkParser;
+import utils.CsvRow;
+
+public class CsvChunkParserTest {
+
+	private static final int LINES = 100000;
+	private static File file = null;
+	private static Map<String, Integer> columns = new HashMap<String, Integer>();
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		file = File.createTempFile("chunkparser", ".csv");
+		try (FileWriter writer = new FileWriter(file)) {
+			for (int i = 0; i < LINES; i++)
+				writer.write(String.format("Vorname%d;Nachname%d;Stadt%d;%05d\n", i, i, i, i));
+		}
+
+		columns.put("firstname", 0);
+		columns.put("lastname", 1);
+		columns.put("city", 2);
+		columns.put("zipCode", 3);
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() {
+		file.delete();
+	}
+
+	@Test
+	public void testOrdered() throws Exception {
+		CsvRow row = new CsvRow(columns);
+		int line = 0;
+
+		try (CsvChunkParser parser = new CsvChunkParser(file.getPath(), 0, 0, columns, true)) {
+			CsvChunkParser.Chunk chunk;
+			while ((chunk = parser.next()) != null) {
+				assertEquals(line, chunk.getFirstLine());
+				for (int i = 0; i < chunk.getRows(); i++, line++) {
+					chunk.view(i, row);
+					assertEquals("Vorname" + line, row.get(0));
+					assertEquals("Nachname" + line, row.get("lastname"));
+				}
+				parser.done(chunk);
+			}
+
+			assertEquals(LINES, line);
+			assertEquals(LINES, parser.getCommittedLine());
+			assertEquals(file.length(), parser.getCommittedOffset());
+		}
+	}
+
+	@Test
+	public void testUnordered() throws Exception {
+		CsvRow row = new CsvRow(columns);
+		BitSet seen = new BitSet(LINES);
+
+		try (CsvChunkParser parser = new CsvChunkParser(file.getPath(), 0, 0, columns, false)) {
+			CsvChunkParser.Chunk chunk;
+			while ((chunk = parser.next()) != null) {
+				for (int i = 0; i < chunk.getRows(); i++) {
+					chunk.view(i, row);
+					seen.set(Integer.parseInt(row.get(3)));
+				}
+				parser.done(chunk);
+			}
+
+			assertEquals(LINES, seen.cardinality());
+			assertEquals(file.length(), parser.getCommittedOffset());
+		}
+	}
+}
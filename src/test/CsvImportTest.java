@@ -0,0 +1,205 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+
+import utils.CsvImport;
+import utils.CsvPipeline;
+import utils.CsvRow;
+
+public class CsvImportTest {
+
+	private File file = null;
+
+	/**
+	 * Collects the firstnames and stops after the given amount of entries.
+	 */
+	private static class RecordingImport extends CsvImport {
+		protected final List<String> handled = new ArrayList<String>();
+		private final int stopAfter;
+
+		RecordingImport(String path, int stopAfter) {
+			super(null, path);
+			this.stopAfter = stopAfter;
+		}
+
+		RecordingImport(Map<String, Object> args) {
+			super(null, getCheckpointSource(args));
+			restoreCheckpoint(args);
+			stopAfter = Integer.MAX_VALUE;
+		}
+
+		@Override
+		protected List<String> handleEntry(CsvRow entry) {
+			handled.add(entry.get("firstname"));
+			if (handled.size() == stopAfter)
+				stop();
+			return Collections.emptyList();
+		}
+
+		@Override
+		protected Map<String, Object> getSerializiationData() {
+			return getCheckpoint();
+		}
+
+		Map<String, Object> suspendToJson() {
+			runInternal();
+			return fromJson(new Gson().toJson(getSerializiationData()));
+		}
+
+		void resume() {
+			runInternal();
+		}
+
+		String summary() {
+			return getSummary();
+		}
+
+		long remainingWork(Map<String, Object> checkpoint) {
+			return getRemainingWork(checkpoint);
+		}
+	}
+
+	/**
+	 * Writes the firstnames by the stages of a {@link CsvPipeline}.
+	 */
+	private static class PipelinedImport extends RecordingImport {
+		PipelinedImport(String path) {
+			super(path, Integer.MAX_VALUE);
+		}
+
+		@Override
+		protected boolean usePipeline() {
+			return true;
+		}
+
+		@Override
+		protected CsvPipeline<?> createPipeline() {
+			return new CsvPipeline<String>(100, (entry, fails) -> entry.get("firstname"), handled::addAll);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> fromJson(String json) {
+		return new Gson().fromJson(json, HashMap.class);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("csvimport", ".csv");
+		file.deleteOnExit();
+		try (FileWriter writer = new FileWriter(file)) {
+			writer.write("firstname;lastname;city;zipCode\n");
+			for (int i = 1; i <= 10; i++)
+				writer.write(String.format("Vorname%d;Nachname%d;Stadt%d;%05d\n", i, i, i, i));
+		}
+	}
+
+	@Test
+	public void testResumeFromCheckpoint() {
+		RecordingImport first = new RecordingImport(file.getPath(), 3);
+		Map<String, Object> checkpoint = first.suspendToJson();
+
+		assertEquals(3, first.handled.size());
+		assertEquals(3, ((Number) checkpoint.get("currentLine")).intValue());
+
+		RecordingImport resumed = new RecordingImport(checkpoint);
+		assertTrue(resumed.isInitilized());
+		resumed.resume();
+
+		assertEquals(7, resumed.handled.size());
+		assertEquals("Vorname4", resumed.handled.get(0));
+	}
+
+	@Test
+	public void testRemainingWork() {
+		RecordingImport first = new RecordingImport(file.getPath(), 3);
+		Map<String, Object> checkpoint = first.suspendToJson();
+		long offset = ((Number) checkpoint.get("currentOffset")).longValue();
+
+		assertEquals(file.length() - offset, first.remainingWork(checkpoint));
+
+		checkpoint.put("partitionEnd", offset + 10);
+		assertEquals(10, first.remainingWork(checkpoint));
+	}
+
+	@Test
+	public void testPartition() throws Exception {
+		Map<String, Object> checkpoint = new RecordingImport(file.getPath(), 3).suspendToJson();
+		long head = "firstname;lastname;city;zipCode\n".length();
+		long row = "Vorname1;Nachname1;Stadt1;00001\n".length();
+
+		checkpoint.put("currentLine", 0);
+		checkpoint.put("currentOffset", head + 2 * row);
+		checkpoint.put("partitionEnd", head + 5 * row);
+
+		RecordingImport partition = new RecordingImport(checkpoint);
+		assertTrue(partition.isPartition());
+		partition.resume();
+
+		assertEquals(Arrays.asList("Vorname3", "Vorname4", "Vorname5"), partition.handled);
+	}
+
+	@Test
+	public void testPipeline() throws Exception {
+		try (FileWriter writer = new FileWriter(file, true)) {
+			writer.write("incomplete\n");
+			for (int i = 11; i <= 2000; i++)
+				writer.write(String.format("Vorname%d;Nachname%d;Stadt%d;%05d\n", i, i, i, i));
+		}
+
+		PipelinedImport pipelined = new PipelinedImport(file.getPath());
+		Map<String, Object> checkpoint = pipelined.suspendToJson();
+
+		assertEquals(2000, pipelined.handled.size());
+		for (int i = 0; i < pipelined.handled.size(); i++)
+			assertEquals("Vorname" + (i + 1), pipelined.handled.get(i));
+		assertEquals(2001, ((Number) checkpoint.get("currentLine")).intValue());
+		assertEquals(file.length(), ((Number) checkpoint.get("currentOffset")).longValue());
+	}
+
+	@Test
+	public void testFailSink() throws Exception {
+		try (FileWriter writer = new FileWriter(file, true)) {
+			writer.write("incomplete\n");
+		}
+
+		RecordingImport recording = new RecordingImport(file.getPath(), Integer.MAX_VALUE);
+		recording.resume();
+
+		String summary = recording.summary();
+		assertTrue(summary.startsWith("1 entries failed, see "));
+		File rejects = new File(summary.substring("1 entries failed, see ".length(), summary.length() - 1));
+		rejects.deleteOnExit();
+
+		List<String> lines = Files.readAllLines(rejects.toPath());
+		assertEquals("rejectLine;rejectOffset;rejectReason;firstname;lastname;city;zipCode", lines.get(0));
+		assertEquals(2, lines.size());
+		assertTrue(lines.get(1).endsWith(";Head- size and fetched entry size are not equal.;incomplete"));
+	}
+
+	@Test
+	public void testChangedSource() throws Exception {
+		Map<String, Object> checkpoint = new RecordingImport(file.getPath(), 3).suspendToJson();
+
+		try (FileWriter writer = new FileWriter(file, true)) {
+			writer.write("Vorname11;Nachname11;Stadt11;00011\n");
+		}
+
+		assertFalse(new RecordingImport(checkpoint).isInitilized());
+	}
+}
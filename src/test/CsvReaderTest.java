@@ -0,0 +1,75 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import utils.CsvReader;
+import utils.CsvRow;
+
+public class CsvReaderTest {
+
+	private static final String MOCK_FILE = "mock.csv";
+
+	@Test
+	public void testResumeAtOffset() throws Exception {
+		long offset;
+		try (CsvReader reader = new CsvReader(MOCK_FILE, 0)) {
+			assertEquals("firstname;lastname;city;zipCode", reader.readLine());
+			for (int i = 0; i < 5; i++)
+				reader.readLine();
+			offset = reader.getOffset();
+		}
+
+		try (CsvReader reader = new CsvReader(MOCK_FILE, offset)) {
+			assertEquals("Vorname6;Nachname6;Stadt6;00006", reader.readLine());
+		}
+	}
+
+	@Test
+	public void testLineBreaks() throws Exception {
+		File file = File.createTempFile("csvreader", ".csv");
+		file.deleteOnExit();
+		try (FileWriter writer = new FileWriter(file)) {
+			writer.write("a;b\r\nc;d\n\ne;f");
+		}
+
+		try (CsvReader reader = new CsvReader(file.getPath(), 0)) {
+			assertEquals("a;b", reader.readLine());
+			assertEquals(5, reader.getOffset());
+			assertEquals("c;d", reader.readLine());
+			assertEquals("", reader.readLine());
+			assertEquals("e;f", reader.readLine());
+			assertNull(reader.readLine());
+			assertEquals(file.length(), reader.getOffset());
+		}
+	}
+
+	@Test
+	public void testReadRow() throws Exception {
+		Map<String, Integer> columns = new HashMap<String, Integer>();
+		columns.put("firstname", 0);
+		columns.put("lastname", 1);
+		columns.put("city", 2);
+		columns.put("zipCode", 3);
+		CsvRow row = new CsvRow(columns);
+
+		try (CsvReader reader = new CsvReader(MOCK_FILE, 0)) {
+			reader.readLine();
+			assertTrue(reader.readRow(row));
+			CsvRow first = row.copy();
+			assertTrue(reader.readRow(row));
+
+			assertTrue(row.isComplete());
+			assertEquals("Vorname2", row.get(0));
+			assertEquals("00002", row.get("zipCode"));
+			assertNull(row.get(4));
+			assertEquals("Stadt1", first.get("city"));
+		}
+	}
+}
@@ -1,12 +1,23 @@
 package test;
 
+import utils.Contact;
+import utils.DB.Account;
 import utils.DB.DB;
 
 public abstract class Helpers {
 
 	public static int deleteAllFrom(String table) {
-		return DB.getMasterDB(db -> {
+		int deleted = DB.getMasterDB(db -> {
 			return db.delete(table, "dbId > 0");
 		});
+		Contact.clearCache();
+		Account.clearCache();
+		return deleted;
+	}
+
+	public static long countFrom(String table) {
+		return DB.getMasterDB(db -> {
+			return ((Number) db.select(table, "Count(dbId)", "").get(0).get("Count(dbId)")).longValue();
+		});
 	}
 }
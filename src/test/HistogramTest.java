@@ -0,0 +1,35 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import utils.metrics.Histogram;
+
+public class HistogramTest {
+
+	@Test
+	public void testPercentiles() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getPercentile(99));
+
+		for (int i = 1; i <= 100; i++)
+			histogram.record(i);
+
+		assertEquals(100, histogram.getCount());
+		assertEquals(50.5, histogram.getMean(), 0.001);
+		assertEquals(63, histogram.getPercentile(50));
+		assertEquals(127, histogram.getPercentile(99));
+		assertEquals(1, histogram.getPercentile(0));
+	}
+
+	@Test
+	public void testExtremes() {
+		Histogram histogram = new Histogram();
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+
+		assertEquals(0, histogram.getPercentile(50));
+		assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+	}
+}
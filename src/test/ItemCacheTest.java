@@ -0,0 +1,44 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import utils.DB.ItemCache;
+
+public class ItemCacheTest {
+
+	@Test
+	public void testEviction() {
+		ItemCache<Integer, String> cache = new ItemCache<Integer, String>(2, 60000);
+		cache.put(1, "one");
+		cache.put(2, "two");
+		cache.get(1);
+		cache.put(3, "three");
+
+		assertEquals("one", cache.get(1));
+		assertNull(cache.get(2));
+		assertEquals("three", cache.get(3));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testExpiry() {
+		ItemCache<Integer, String> cache = new ItemCache<Integer, String>(2, -1);
+		cache.put(1, "one");
+
+		assertNull(cache.get(1));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testInvalidate() {
+		ItemCache<Integer, String> cache = new ItemCache<Integer, String>(10, 60000);
+		cache.put(1, "one");
+		cache.put(2, "two");
+		cache.invalidate(1);
+		cache.invalidateIf(v -> v.startsWith("t"));
+
+		assertEquals(0, cache.size());
+	}
+}
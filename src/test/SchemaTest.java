@@ -0,0 +1,69 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import utils.DB.DB;
+import utils.DB.Schema;
+
+public class SchemaTest {
+
+	private static final String BASELINE_WORKERJOBS = "Create Table workerjobs("
+			+ "dbId int NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+			+ "remitter int NOT NULL, "
+			+ "FOREIGN KEY fk_account(remitter) REFERENCES accounts(dbId) "
+			+ "ON UPDATE CASCADE ON DELETE RESTRICT, "
+			+ "operation varchar(50) NOT NULL, "
+			+ "arguments varchar(2048) NOT NULL, "
+			+ "mail varchar(50) NOT NULL, "
+			+ "lockedUntil datetime NOT NULL default now(), "
+			+ "creationTime datetime NOT NULL default now(), "
+			+ "doneTime datetime(0))";
+
+	private static boolean hasColumn(DB db, String table, String column) {
+		return !db.query("Select 1 From information_schema.columns "
+				+ "Where table_schema = database() And table_name = ? And column_name = ?", table, column).isEmpty();
+	}
+
+	@Test
+	public void testMigrate() {
+		assertTrue(DB.getMasterDB(db -> {
+			return Schema.migrate(db);
+		}));
+
+		long applied = DB.getMasterDB(db -> {
+			return ((Number) db.query("Select Count(*) As applied From schema_version").get(0).get("applied"))
+					.longValue();
+		});
+		assertEquals(4, applied);
+	}
+
+	@Test
+	public void testMigrateIsRepeatable() {
+		DB.getMasterDB(db -> {
+			assertTrue(Schema.migrate(db));
+			assertTrue(Schema.migrate(db));
+			assertTrue(Schema.hasIndex(db, "contacts", "uq_contact"));
+			assertTrue(Schema.hasIndex(db, "workerjobs", "idx_pending"));
+		});
+	}
+
+	@Test
+	public void testMigrateBaselineTables() {
+		DB.getMasterDB(db -> {
+			db.execute("Drop Table if exists workerjobs");
+			db.execute(BASELINE_WORKERJOBS);
+			db.execute("Delete From schema_version Where version >= 2");
+
+			assertTrue(Schema.migrate(db));
+			for (String column : new String[] { "claimToken", "parentId", "partitioned", "priority",
+					"remainingWork" })
+				assertTrue(column, hasColumn(db, "workerjobs", column));
+			assertTrue(Schema.hasIndex(db, "workerjobs", "idx_claimToken"));
+			assertTrue(Schema.hasIndex(db, "workerjobs", "idx_parentId"));
+			assertTrue(Schema.hasIndex(db, "workerjobs", "idx_pending"));
+			assertTrue(Schema.hasIndex(db, "contacts", "uq_contact"));
+		});
+	}
+}
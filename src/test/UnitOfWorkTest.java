@@ -0,0 +1,65 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import utils.DB.DbItem;
+import utils.DB.UnitOfWork;
+
+public class UnitOfWorkTest {
+
+	private static class Item extends DbItem {
+		Item(int dbId) {
+			super("items");
+			this.dbId = dbId;
+		}
+
+		void setName(String name) {
+			cacheChange("name", name);
+		}
+	}
+
+	@Test
+	public void testIdentity() {
+		try (UnitOfWork work = UnitOfWork.begin()) {
+			Item first = work.join(new Item(1));
+
+			assertSame(first, work.join(new Item(1)));
+			assertSame(first, UnitOfWork.joinCurrent(new Item(1)));
+			assertNotSame(first, work.join(new Item(2)));
+			assertNull(UnitOfWork.begin());
+		}
+
+		assertNull(UnitOfWork.current());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testChangedCopyIsRejected() {
+		try (UnitOfWork work = UnitOfWork.begin()) {
+			work.join(new Item(1));
+
+			Item copy = new Item(1);
+			copy.setName("copy");
+			copy.commitChanges();
+		}
+	}
+
+	@Test
+	public void testCommitIsDeferred() {
+		Item item = new Item(1);
+
+		try (UnitOfWork work = UnitOfWork.begin()) {
+			item.setName("first");
+			item.commitChanges();
+			item.setName("second");
+			item.commitChanges();
+			new Item(-1).commitChanges();
+
+			assertEquals(1, work.getDirtyCount());
+			assertTrue(item.hasUncommitedChanges());
+		}
+
+		assertTrue(item.hasUncommitedChanges());
+	}
+}
@@ -0,0 +1,152 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import utils.Contact;
+import utils.DB.Account;
+import utils.DB.DB;
+import utils.DB.DbItem;
+
+public class UpsertTest {
+
+	private static Account acc = null;
+
+	private static class Row extends DbItem {
+		Row(int accId, String firstname, String lastname) {
+			super("contacts");
+			cacheChange("accId", accId);
+			cacheChange("firstname", firstname);
+			cacheChange("lastname", lastname);
+			cacheChange("city", "Stadt");
+			cacheChange("zipCode", "00001");
+		}
+
+		int getDbId() {
+			return dbId;
+		}
+	}
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		if ((acc = Account.load("Tester", "Testpw")) == null) {
+			acc = new Account("Tester", "Testpw", "chr.chart@gmail.com");
+			acc.commitChanges();
+		}
+	}
+
+	@Before
+	public void setUp() {
+		Helpers.deleteAllFrom("contacts");
+	}
+
+	private static Map<String, Object> contact(int accId, String firstname, String lastname, String city) {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("accId", accId);
+		data.put("firstname", firstname);
+		data.put("lastname", lastname);
+		data.put("city", city);
+		data.put("zipCode", "00001");
+		return data;
+	}
+
+	@Test
+	public void testUpsertBatchSkipsDuplicates() {
+		List<Map<String, Object>> data = Arrays.asList(contact(acc.getDbId(), "Vorname1", "Nachname1", "Stadt1"),
+				contact(acc.getDbId(), "Vorname2", "Nachname2", "Stadt2"));
+
+		assertEquals(2, (int) DB.getMasterDB(db -> {
+			return db.upsertBatch("contacts", data);
+		}));
+		assertEquals(0, (int) DB.getMasterDB(db -> {
+			return db.upsertBatch("contacts", data);
+		}));
+		assertEquals(2, Helpers.countFrom("contacts"));
+	}
+
+	@Test
+	public void testUpsertBatchUpdatesColumns() {
+		DB.getMasterDB(db -> {
+			db.upsertBatch("contacts", Arrays.asList(contact(acc.getDbId(), "Vorname1", "Nachname1", "Stadt1")));
+		});
+
+		int effected = DB.getMasterDB(db -> {
+			return db.upsertBatch("contacts", Arrays.asList(contact(acc.getDbId(), "Vorname1", "Nachname1",
+					"Stadt2")), "city");
+		});
+		String city = DB.getMasterDB(db -> {
+			return (String) db.select("contacts", "city", "Where firstname = ?", "Vorname1").get(0).get("city");
+		});
+
+		assertEquals(2, effected);
+		assertEquals("Stadt2", city);
+		assertEquals(1, Helpers.countFrom("contacts"));
+	}
+
+	@Test
+	public void testUpsertBatchFailure() {
+		List<Map<String, Object>> data = Arrays.asList(contact(acc.getDbId(), "Vorname1", "Nachname1", "Stadt1"),
+				contact(-1, "Vorname2", "Nachname2", "Stadt2"));
+
+		assertEquals(-1, (int) DB.getMasterDB(db -> {
+			return db.upsertBatch("contacts", data);
+		}));
+		assertEquals(0, Helpers.countFrom("contacts"));
+	}
+
+	@Test
+	public void testInsertIfAbsent() throws Exception {
+		List<Contact> contacts = new ArrayList<Contact>();
+		for (int i = 1; i <= 3; i++)
+			contacts.add(new Contact(acc, "Vorname" + i, "Nachname" + i, "Stadt" + i, "0000" + i));
+		DB.getMasterDB(db -> {
+			db.insert("contacts", contact(acc.getDbId(), "Vorname2", "Nachname2", "Stadt2"));
+		});
+
+		assertEquals(2, DbItem.insertIfAbsent(contacts));
+		assertFalse(contacts.get(0).hasUncommitedChanges());
+		assertEquals(3, Helpers.countFrom("contacts"));
+	}
+
+	@Test
+	public void testInsertIfAbsentFailure() {
+		List<Row> rows = Arrays.asList(new Row(acc.getDbId(), "Vorname1", "Nachname1"),
+				new Row(-1, "Vorname2", "Nachname2"));
+
+		assertEquals(-1, DbItem.insertIfAbsent(rows));
+		assertTrue(rows.get(0).hasUncommitedChanges());
+		assertEquals(0, Helpers.countFrom("contacts"));
+	}
+
+	@Test
+	public void testCommitChangesReturnsFailed() {
+		List<Row> rows = Arrays.asList(new Row(acc.getDbId(), "Vorname1", "Nachname1"),
+				new Row(-1, "Vorname2", "Nachname2"));
+
+		List<Row> failed = DbItem.commitChanges(rows);
+
+		assertEquals(rows, failed);
+		assertEquals(-1, rows.get(0).getDbId());
+		assertEquals(0, Helpers.countFrom("contacts"));
+	}
+
+	@Test
+	public void testLoadAfterInsertWithOtherCasing() throws Exception {
+		assertNull(Contact.load(acc, "Vorname1", "Nachname1"));
+
+		new Contact(acc, "vorname1", "NACHNAME1", "Stadt1", "00001").commitChanges();
+
+		Contact loaded = Contact.load(acc, "Vorname1", "Nachname1");
+		assertNotNull(loaded);
+		assertEquals("vorname1", loaded.getFirstname());
+	}
+}
@@ -1,11 +1,18 @@
 package utils;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 import utils.DB.Account;
 import utils.DB.DB;
 import utils.DB.DbItem;
+import utils.DB.ItemCache;
+import utils.DB.UnitOfWork;
 
 /**
  * Part of the example implementation. You can create a new Contact by using the constructor. You have to
@@ -13,11 +20,16 @@ import utils.DB.DbItem;
  * @author Christian Chartron
  */
 public class Contact extends DbItem {	
+	private static final ItemCache<String, Optional<Contact>> cache = new ItemCache<String, Optional<Contact>>(
+			Settings.getIntSetting("ContactCacheSize", 10000),
+			Settings.getIntSetting("ContactCacheTtlSeconds", 60) * 1000L);
+	
 	private String firstname;
 	private String lastname;
 	private String city;
 	private String zipCode;
 	private Account account = null;
+	private String cacheKey = null;
 	
 	public String getFirstname() {
 		return firstname;
@@ -65,11 +77,20 @@ public class Contact extends DbItem {
 
 	public Contact(Account account, String firstname, String lastname, String city, String zipCode) 
 			throws Exception {
+		this(account, firstname, lastname, city, zipCode, true);
+	}
+	
+	/**
+	 * @param checkExisting Pass false only if the caller already made sure the Contact doesn't exist, 
+	 * e.g. by a {@link ContactKeySet}.
+	 */
+	Contact(Account account, String firstname, String lastname, String city, String zipCode,
+			boolean checkExisting) throws Exception {
 		super("contacts");
 
 		if (!account.isAuthenticated())
 			throw new Exception("Account isn't authenticated.");		
-		if ((Contact.load(account, firstname, lastname)) != null)
+		if (checkExisting && (Contact.load(account, firstname, lastname)) != null)
 			throw new Exception("Contact excists already. Consider using Contact#load.");
 
 		if (firstname.isEmpty())
@@ -99,9 +120,8 @@ public class Contact extends DbItem {
 		try {
 			List<Map<String, Object>> data = null;
 			if (account.isAuthenticated())
-				data = DB.getMasterDB(db -> {
-					return db.select(getTable(), "*",
-							String.format("Where accId=%s AND dbId=%s", account.getDbId(),dbId));
+				data = DB.getReadDB(db -> {
+					return db.select(getTable(), "*", "Where accId=? AND dbId=?", account.getDbId(), dbId);
 				});
 
 			if (!data.isEmpty()) {
@@ -119,22 +139,89 @@ public class Contact extends DbItem {
 	}
 	
 	/**
-	 * Loads a Contact from DB.
+	 * Copies a Contact, the cache only hands out copies of the Contacts it holds.
+	 */
+	private Contact(Contact contact) {
+		super("contacts");
+		
+		dbId = contact.dbId;
+		firstname = contact.firstname;
+		lastname = contact.lastname;
+		city = contact.city;
+		zipCode = contact.zipCode;
+		account = contact.account;
+		cacheKey = contact.cacheKey;
+	}
+	
+	/**
+	 * Constructor used to map a {@link Contact} from a streamed row.
+	 */
+	private Contact(Account account, ResultSet row) throws SQLException {
+		super("contacts");
+		
+		dbId = row.getInt("dbId");
+		firstname = row.getString("firstname");
+		lastname = row.getString("lastname");
+		city = row.getString("city");
+		zipCode = row.getString("zipCode");
+		this.account = account;
+	}
+	
+	/**
+	 * Streams all Contacts of an {@link Account} from DB, e.g. for an export. The Contacts aren't held in 
+	 * memory by this method.
+	 * @param account
+	 * @param handler Gets called for each Contact.
+	 * @return The amount of Contacts.
+	 */
+	public static long forEach(Account account, Consumer<Contact> handler) {
+		if (!account.isAuthenticated())
+			return 0;
+		
+		return DB.getReadDB(db -> {
+			return db.forEach("Select dbId, firstname, lastname, city, zipCode From contacts Where accId=?",
+					row -> new Contact(account, row), handler, account.getDbId());
+		});
+	}
+	
+	/**
+	 * Loads a Contact from DB. Found Contacts and misses are cached for ContactCacheTtlSeconds, so repeated
+	 * lookups of the same names don't hit the DB. Every call returns a new copy, changes of one don't show up
+	 * in the cache before they are committed. Within a {@link UnitOfWork} the Contact joins it.
+	 * The Contact is read from a read replica, unless the thread reads its own writes, see
+	 * {@link DB#setReadYourWrites(boolean)}. Only reads of the master DB are cached, a replica may lag behind
+	 * the writes the cache is shared with.
 	 * @param account You have to pass the {@link Account} which was used to create the Contact.
 	 * @param firstname
 	 * @param lastname
 	 * @return
 	 */
 	public static Contact load(Account account, String firstname, String lastname) {
+		String key = cacheKey(account.getDbId(), firstname, lastname);
+		Optional<Contact> cached = cache.get(key);
+		if (cached != null)
+			return UnitOfWork.joinCurrent(cached.map(Contact::new).orElse(null));
+		
+		Contact contact = DB.getReadDB(db -> {
+			Contact loaded = loadUncached(db, account, firstname, lastname);
+			if (!db.isReplica()) {
+				if (loaded != null)
+					loaded.cacheKey = key;
+				cache.put(key, Optional.ofNullable(loaded).map(Contact::new));
+			}
+			return loaded;
+		});
+		
+		return UnitOfWork.joinCurrent(contact);
+	}
+	
+	private static Contact loadUncached(DB db, Account account, String firstname, String lastname) {
 		int dbId = -1;
 		
 		try {
-			dbId = DB.getMasterDB(db -> {
-				List<Map<String, Object>> ret = db.select("contacts", "dbId",
-					String.format("Where firstname='%s' AND lastname='%s' AND accId=%s", 
-							firstname, lastname, account.getDbId()));				
-				return ret.isEmpty() ? -1 : (int)ret.get(0).get("dbId");
-				});
+			List<Map<String, Object>> ret = db.select("contacts", "dbId",
+				"Where firstname=? AND lastname=? AND accId=?", firstname, lastname, account.getDbId());
+			dbId = ret.isEmpty() ? -1 : (int)ret.get(0).get("dbId");
 		}
 		catch (Exception e) {
 			System.out.println(e.toString());
@@ -143,4 +230,40 @@ public class Contact extends DbItem {
 		Contact contact = new Contact(account, dbId);
 		return contact.dbId > 0 ? contact : null;
 	}
+	
+	/**
+	 * Writes the committed Contact through to the cache of {@link #load(Account, String, String)}.
+	 */
+	@Override
+	protected void onCommitted() {
+		String key = cacheKey(account.getDbId(), firstname, lastname);
+		if (cacheKey != null && !cacheKey.equals(key))
+			cache.invalidate(cacheKey);
+		
+		cacheKey = key;
+		cache.put(key, Optional.of(new Contact(this)));
+	}
+	
+	/**
+	 * The Contact may have been written or may have existed already, so any cached miss is dropped and the
+	 * next {@link #load(Account, String, String)} asks the DB.
+	 */
+	@Override
+	protected void onUpserted() {
+		cache.invalidate(cacheKey(account.getDbId(), firstname, lastname));
+	}
+	
+	/**
+	 * Removes all cached Contacts and misses, e.g. after Contacts were deleted.
+	 */
+	public static void clearCache() {
+		cache.clear();
+	}
+	
+	/**
+	 * The names are compared case-insensitively like by the contacts table.
+	 */
+	private static String cacheKey(int accId, String firstname, String lastname) {
+		return (accId + ";" + firstname + ";" + lastname).toLowerCase(Locale.ROOT);
+	}
 }
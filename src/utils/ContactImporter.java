@@ -1,11 +1,19 @@
 package utils;
 
+import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import utils.DB.Account;
+import utils.DB.DB;
+import utils.DB.DbItem;
+import utils.DB.Schema;
 
 /**
  * Part of the example implementation. This class represents a {@link Job} and a {@link CsvImport}.
@@ -13,16 +21,29 @@ import utils.DB.Account;
  *
  */
 public class ContactImporter extends CsvImport {
+	private final int batchSize = Settings.getIntSetting("ImportBatchSize", DB.BATCH_SIZE);
+	private List<Contact> pending = new ArrayList<Contact>();
+	private Set<String> pendingKeys = new HashSet<String>();
+	private final boolean preloadKeys = Boolean.parseBoolean(Settings.getSetting("ContactKeyPreload", "false"));
+	private static volatile boolean uniqueContacts = false;
+	private final boolean upsert = Boolean.parseBoolean(Settings.getSetting("ContactUpsert", "true"))
+			&& hasUniqueContacts();
+	private ContactKeySet keys = null;
+	private Map<String, Boolean> writtenKeys = null;
+	private int firstnameColumn;
+	private int lastnameColumn;
+	private int cityColumn;
+	private int zipCodeColumn;
 
 	/**
 	 * Deserialization constructor
 	 */
 	public ContactImporter(int dbId, Account rem, String mail, Map<String, Object> args) {
-		super(rem, (String) args.get("savePath"));
-		setSavePath((String) args.get("savePath"));
-		this.currentLine = ((Double) args.get("currentLine")).intValue();
+		super(rem, getCheckpointSource(args));
 		setEMail(mail);
 		this.setDbId(dbId);
+		restoreCheckpoint(args);
+		resolveColumns();
 	}
 	
 	/**
@@ -35,37 +56,221 @@ public class ContactImporter extends CsvImport {
 		super(acc, path);
 		
 		this.setEMail(eMail);
+		resolveColumns();
+	}
+	
+	/**
+	 * ContactUpsert depends on the unique key uq_contact of migration 2, see {@link Schema}. As long as it is
+	 * missing, e.g. because duplicate contacts stopped the migration, the importer checks every contact and
+	 * isn't partitioned.
+	 */
+	private static boolean hasUniqueContacts() {
+		if (!uniqueContacts)
+			uniqueContacts = DB.getMasterDB(db -> {
+				return Schema.hasIndex(db, "contacts", "uq_contact");
+			});
+		return uniqueContacts;
+	}
+	
+	private void resolveColumns() {
+		firstnameColumn = getColumn("firstname");
+		lastnameColumn = getColumn("lastname");
+		cityColumn = getColumn("city");
+		zipCodeColumn = getColumn("zipCode");
 	}
 
+	/**
+	 * @return The fail of the entry or an empty list. The reason is the message of the exception only, the
+	 * {@link FailSink} adds the position.
+	 */
 	@Override
-	protected List<String> handleEntry(Map<String, String> entry) {
-		List<String> ret = new ArrayList<String>();
+	protected List<String> handleEntry(CsvRow entry) {
 		Contact contact = null;
-				
+		String firstname = entry.get(firstnameColumn);
+		String lastname = entry.get(lastnameColumn);
+		
+		loadKeys();
+		
 		try {
-			if((contact = Contact.load(getAccount(), entry.get("firstname"), entry.get("lastname")))
-					== null) {
-				contact = new Contact(getAccount(), entry.get("firstname"),
-						entry.get("lastname"), entry.get("city"),
-						entry.get("zipCode"));
+			if (!exists(firstname, lastname)) {
+				contact = new Contact(getAccount(), firstname, lastname, entry.get(cityColumn),
+						entry.get(zipCodeColumn), false);
+				
+				pendingKeys.add(key(firstname, lastname));
+				if (keys != null)
+					keys.add(firstname, lastname);
 
-				contact.commitChanges();
+				pending.add(contact);
+				if (pending.size() >= batchSize)
+					flushEntries();
 			}
 		}
 		catch(Exception e) {
-			ret.add(e.toString());
+			return Collections.singletonList(reason(e));
 		}
 		
-		return ret;
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * The key of a contact within this import, case-insensitive like the contacts table.
+	 */
+	private static String key(String firstname, String lastname) {
+		return (firstname + ";" + lastname).toLowerCase(Locale.ROOT);
+	}
+	
+	private static String reason(Exception e) {
+		return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+	}
+	
+	private void loadKeys() {
+		if (preloadKeys && !upsert && keys == null)
+			keys = ContactKeySet.load(getAccount(), Settings.getIntSetting("ContactKeyPreloadMax", 2000000));
 	}
+	
+	/**
+	 * The pipeline looks up the contacts concurrently and writes the new ones in file order. Only the writer
+	 * adds to the {@link ContactKeySet}, the lookups synchronize on it.
+	 */
+	@Override
+	protected CsvPipeline<?> createPipeline() {
+		loadKeys();
+		
+		CsvPipeline<Contact> pipeline = new CsvPipeline<Contact>(batchSize, this::validate, this::write);
+		int window = pipeline.getCapacity() + batchSize;
+		writtenKeys = new LinkedHashMap<String, Boolean>() {
+			private static final long serialVersionUID = 1L;
 
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+				return size() > window;
+			}
+		};
+		
+		return pipeline;
+	}
+	
+	/**
+	 * Validation stage. Duplicates within the file aren't detected here, since the lookups run concurrently.
+	 * @return The new {@link Contact} or null if it exists already.
+	 */
+	private Contact validate(CsvRow entry, List<String> fails) throws Exception {
+		String firstname = entry.get(firstnameColumn);
+		String lastname = entry.get(lastnameColumn);
+		boolean complete = false;
+		
+		if (keys != null) {
+			synchronized (keys) {
+				if (keys.contains(firstname, lastname))
+					return null;
+				complete = keys.isComplete();
+			}
+		}
+		if (!upsert && !complete && Contact.load(getAccount(), firstname, lastname) != null)
+			return null;
+		
+		try {
+			return new Contact(getAccount(), firstname, lastname, entry.get(cityColumn),
+					entry.get(zipCodeColumn), false);
+		}
+		catch (IllegalArgumentException e) {
+			fails.add(reason(e));
+			return null;
+		}
+	}
+	
+	/**
+	 * Writer stage. Drops the duplicates within the file, the first entry wins like in the sequential mode.
+	 * A contact validated before an equal one got written is at most one pipeline capacity behind it, so only
+	 * that many keys are remembered.
+	 */
+	private void write(List<Contact> contacts) throws SQLException {
+		if (upsert) {
+			if (DbItem.insertIfAbsent(contacts) == -1)
+				throw new SQLException("The contacts couldn't be upserted.");
+			return;
+		}
+		
+		List<Contact> batch = new ArrayList<Contact>(contacts.size());
+		
+		for (Contact contact : contacts) {
+			if (writtenKeys.put(key(contact.getFirstname(), contact.getLastname()), Boolean.TRUE) != null)
+				continue;
+			
+			if (keys != null) {
+				synchronized (keys) {
+					keys.add(contact.getFirstname(), contact.getLastname());
+				}
+			}
+			batch.add(contact);
+		}
+		
+		if (!DbItem.commitChanges(batch).isEmpty())
+			throw new SQLException("The contacts couldn't be inserted.");
+	}
+	
+	/**
+	 * Checks the preloaded {@link ContactKeySet} first. Only if it couldn't hold all keys of the account,
+	 * the DB is asked. With ContactUpsert only the pending contacts are checked, the DB skips the existing
+	 * ones on insert.
+	 */
+	private boolean exists(String firstname, String lastname) {
+		if (keys != null && keys.contains(firstname, lastname))
+			return true;
+		if (pendingKeys.contains(key(firstname, lastname)))
+			return true;
+		if (upsert || (keys != null && keys.isComplete()))
+			return false;
+		
+		return Contact.load(getAccount(), firstname, lastname) != null;
+	}
+	
+	/**
+	 * Writes the buffered new {@link Contact}s in one batch. If it fails, the import is stopped and rolled back.
+	 */
 	@Override
-	protected Map<String, Object> getSerializiationData() {
-		save();
+	protected void flushEntries() {
+		if (pending.isEmpty())
+			return;
 		
-		Map<String, Object> ret = new HashMap<String, Object>();
-		ret.put("currentLine", this.currentLine);
-		ret.put("savePath", this.getSavePath());		
-		return ret;
+		if (upsert ? DbItem.insertIfAbsent(pending) == -1 : !DbItem.commitChanges(pending).isEmpty())
+			failEntries();
+		pending.clear();
+		pendingKeys.clear();
+	}
+
+	/**
+	 * With ContactUpsert the unique key of the contacts decides about duplicates, so concurrent partitions
+	 * can't insert a contact twice.
+	 */
+	@Override
+	protected boolean isPartitionable() {
+		return upsert;
+	}
+
+	/**
+	 * Without ContactUpsert the existence checks have to see the contacts written by this import.
+	 */
+	@Override
+	protected boolean readsOwnWrites() {
+		return !upsert || super.readsOwnWrites();
+	}
+
+	/**
+	 * The rolled back contacts may be cached or part of the key set already, both are dropped.
+	 */
+	@Override
+	protected void discardEntries() {
+		pending.clear();
+		pendingKeys.clear();
+		keys = null;
+		if (writtenKeys != null)
+			writtenKeys.clear();
+		Contact.clearCache();
+	}
+
+	@Override
+	protected Map<String, Object> getSerializiationData() {
+		return getCheckpoint();
 	}	
 }
\ No newline at end of file
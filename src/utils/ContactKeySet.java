@@ -0,0 +1,156 @@
+package utils;
+
+import utils.DB.Account;
+import utils.DB.DB;
+
+/**
+ * Part of the example implementation. A compact in-memory set of the (firstname, lastname) keys of an
+ * {@link Account}s {@link Contact}s, used by the {@link ContactImporter} to answer duplicate checks without
+ * a DB round trip.
+ *
+ * Each key is stored as a 64 bit fingerprint in an open addressing long[] table, so an entry costs at most
+ * 16 bytes. The set never holds more than maxEntries keys. If an account has more contacts, the set is
+ * marked as incomplete: contained keys are still reliable, but a missing key has to be checked against the DB.
+ * Two different keys sharing a fingerprint is possible but negligible for 64 bits.
+ * @author Christian Chartron
+ *
+ */
+public class ContactKeySet {
+	private static final long EMPTY = 0L;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final int maxEntries;
+	private long[] table;
+	private int size = 0;
+	private boolean complete = true;
+
+	/**
+	 * @param maxEntries The upper bound of keys held in memory.
+	 */
+	public ContactKeySet(int maxEntries) {
+		this.maxEntries = maxEntries;
+		table = new long[INITIAL_CAPACITY];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return False if keys had to be dropped because of the maxEntries bound.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Loads the keys of all {@link Contact}s of the given {@link Account}. The keys are streamed from the DB,
+	 * so only the set itself is held in memory.
+	 * @param account
+	 * @param maxEntries The upper bound of keys held in memory.
+	 * @return
+	 */
+	public static ContactKeySet load(Account account, int maxEntries) {
+		ContactKeySet keys = new ContactKeySet(maxEntries);
+
+		DB.runOnReadDB(db -> {
+			db.forEach("Select firstname, lastname From contacts Where accId=?",
+					row -> fingerprint(row.getString(1), row.getString(2)), keys::add, account.getDbId());
+		});
+
+		return keys;
+	}
+
+	/**
+	 * @param firstname
+	 * @param lastname
+	 * @return True if the key is part of the set.
+	 */
+	public boolean contains(String firstname, String lastname) {
+		return contains(fingerprint(firstname, lastname));
+	}
+
+	private boolean contains(long fingerprint) {
+		int mask = table.length - 1;
+
+		for (int i = index(fingerprint, mask); table[i] != EMPTY; i = (i + 1) & mask) {
+			if (table[i] == fingerprint)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds a key to the set.
+	 * @param firstname
+	 * @param lastname
+	 * @return False if the key was already part of the set or the set is full.
+	 */
+	public boolean add(String firstname, String lastname) {
+		return add(fingerprint(firstname, lastname));
+	}
+
+	private boolean add(long fingerprint) {
+		if (contains(fingerprint))
+			return false;
+		if (size >= maxEntries) {
+			complete = false;
+			return false;
+		}
+		if ((size + 1) * 2 > table.length)
+			grow();
+
+		insert(table, fingerprint);
+		size++;
+		return true;
+	}
+
+	private void grow() {
+		long[] grown = new long[table.length * 2];
+		for (long fingerprint : table) {
+			if (fingerprint != EMPTY)
+				insert(grown, fingerprint);
+		}
+		table = grown;
+	}
+
+	private static void insert(long[] table, long fingerprint) {
+		int mask = table.length - 1;
+		int i = index(fingerprint, mask);
+
+		while (table[i] != EMPTY)
+			i = (i + 1) & mask;
+		table[i] = fingerprint;
+	}
+
+	private static int index(long fingerprint, int mask) {
+		long h = fingerprint;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return (int) h & mask;
+	}
+
+	/**
+	 * FNV-1a hash of both names. The separator can't be part of a name since it is the csv delimiter. The names
+	 * are lower-cased, so keys differing in case only are equal like for the case-insensitive collation of the
+	 * contacts table.
+	 */
+	static long fingerprint(String firstname, String lastname) {
+		long h = 0xcbf29ce484222325L;
+		h = hash(h, firstname);
+		h = (h ^ ';') * 0x100000001b3L;
+		h = hash(h, lastname);
+
+		return h == EMPTY ? 1L : h;
+	}
+
+	private static long hash(long h, String value) {
+		if (value == null)
+			return h;
+
+		for (int i = 0; i < value.length(); i++)
+			h = (h ^ Character.toLowerCase(value.charAt(i))) * 0x100000001b3L;
+		return h;
+	}
+}
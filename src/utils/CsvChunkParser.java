@@ -0,0 +1,339 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Part of the example implementation. Parses a csv file in parallel for a {@link CsvImport}. The file is split
+ * into newline aligned chunks of about CsvChunkSize bytes, each chunk is memory mapped and parsed on a shared
+ * {@link ForkJoinPool}. Only a few chunks per pool thread are in flight, so the memory use doesn't depend
+ * on the file size.
+ *
+ * Chunks are handed out in file order. If the importer doesn't care about the order, they are handed out as
+ * soon as they are parsed. In this case the line numbers of a chunk are only known once all chunks before it
+ * are parsed, and a checkpoint can only cover the chunks up to the first one which isn't {@link #done(Chunk)}.
+ * @author Christian Chartron
+ *
+ */
+public class CsvChunkParser implements Closeable {
+	private static final int SCAN_SIZE = 4096;
+	private static ForkJoinPool pool = null;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+	private final Map<String, Integer> columns;
+	private final boolean ordered;
+	private final Charset charset = Charset.defaultCharset();
+	private final int chunkSize = Settings.getIntSetting("CsvChunkSize", 1024 * 1024);
+	private final int window;
+
+	private long nextStart;
+	private int nextIndex = 0;
+	private int running = 0;
+	private final ArrayDeque<CompletableFuture<Chunk>> inFlight = new ArrayDeque<CompletableFuture<Chunk>>();
+	private final LinkedBlockingQueue<Chunk> parsed = new LinkedBlockingQueue<Chunk>();
+
+	private final Map<Integer, Integer> rowCounts = new HashMap<Integer, Integer>();
+	private int countedIndex = 0;
+	private long countedLines;
+
+	private final Map<Integer, Chunk> finished = new HashMap<Integer, Chunk>();
+	private int committedIndex = 0;
+	private long committedLine;
+	private long committedOffset;
+
+	/**
+	 * One parsed part of the file. Holds the decoded chars and the field bounds of all its entries.
+	 */
+	public static class Chunk {
+		private final int index;
+		private final long start;
+		private final long end;
+		private long firstLine = -1;
+		private char[] chars;
+		private int[] bounds = new int[1024];
+		private int[] rowBase = new int[128];
+		private int[] rowFields = new int[128];
+		private long[] rowEnd = new long[128];
+		private int rows = 0;
+		private IOException error = null;
+
+		private Chunk(int index, long start, long end) {
+			this.index = index;
+			this.start = start;
+			this.end = end;
+		}
+
+		public int getRows() {
+			return rows;
+		}
+
+		/**
+		 * @return The line number of the first entry or -1 if it isn't known yet.
+		 */
+		public long getFirstLine() {
+			return firstLine;
+		}
+
+		/**
+		 * @return The byte offset of the given entry.
+		 */
+		public long getRowStart(int row) {
+			return row == 0 ? start : rowEnd[row - 1];
+		}
+
+		/**
+		 * @return The byte offset behind the given entry.
+		 */
+		public long getRowEnd(int row) {
+			return rowEnd[row];
+		}
+
+		/**
+		 * Points the given {@link CsvRow} at an entry of this chunk.
+		 */
+		public void view(int row, CsvRow target) {
+			target.view(chars, bounds, rowBase[row], rowFields[row]);
+		}
+
+		private void addRow(int charStart, int charEnd, long byteEnd) {
+			if (rows == rowBase.length) {
+				rowBase = Arrays.copyOf(rowBase, rows * 2);
+				rowFields = Arrays.copyOf(rowFields, rows * 2);
+				rowEnd = Arrays.copyOf(rowEnd, rows * 2);
+			}
+
+			int base = rows == 0 ? 0 : rowBase[rows - 1] + 2 * rowFields[rows - 1];
+			int fields = 0;
+			int fieldStart = charStart;
+
+			for (int i = charStart; i <= charEnd; i++) {
+				if (i == charEnd || chars[i] == CsvRow.DELIMITER) {
+					if (base + 2 * fields + 1 >= bounds.length)
+						bounds = Arrays.copyOf(bounds, bounds.length * 2);
+
+					bounds[base + 2 * fields] = fieldStart;
+					bounds[base + 2 * fields + 1] = i;
+					fields++;
+					fieldStart = i + 1;
+				}
+			}
+
+			rowBase[rows] = base;
+			rowFields[rows] = fields;
+			rowEnd[rows] = byteEnd;
+			rows++;
+		}
+	}
+
+	/**
+	 * @param path The file to parse.
+	 * @param offset The byte offset of the first entry.
+	 * @param line The line number of the first entry.
+	 * @param columns Maps the column names of the head to their index.
+	 * @param ordered Whether the chunks have to be handed out in file order.
+	 * @throws IOException
+	 */
+	public CsvChunkParser(String path, long offset, long line, Map<String, Integer> columns, boolean ordered)
+			throws IOException {
+		this(path, offset, -1, line, columns, ordered);
+	}
+
+	/**
+	 * @param path The file to parse.
+	 * @param offset The byte offset of the first entry.
+	 * @param end The byte offset behind the last entry to parse, -1 to parse to the end of the file. Has to
+	 * be the start of a line.
+	 * @param line The line number of the first entry.
+	 * @param columns Maps the column names of the head to their index.
+	 * @param ordered Whether the chunks have to be handed out in file order.
+	 * @throws IOException
+	 */
+	public CsvChunkParser(String path, long offset, long end, long line, Map<String, Integer> columns,
+			boolean ordered) throws IOException {
+		file = new RandomAccessFile(path, "r");
+		channel = file.getChannel();
+		size = end >= 0 ? Math.min(end, channel.size()) : channel.size();
+		this.columns = columns;
+		this.ordered = ordered;
+		window = 2 * getPool().getParallelism();
+
+		nextStart = offset;
+		countedLines = line;
+		committedLine = line;
+		committedOffset = offset;
+	}
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null)
+			pool = new ForkJoinPool(Settings.getIntSetting("CsvParseParallelism",
+					Runtime.getRuntime().availableProcessors()));
+		return pool;
+	}
+
+	/**
+	 * @return The line number up to which all entries are {@link #done(Chunk)}.
+	 */
+	public long getCommittedLine() {
+		return committedLine;
+	}
+
+	/**
+	 * @return The byte offset up to which all entries are {@link #done(Chunk)}.
+	 */
+	public long getCommittedOffset() {
+		return committedOffset;
+	}
+
+	/**
+	 * Waits for the next parsed chunk.
+	 * @return Null if the whole file is handed out.
+	 * @throws IOException If the chunk couldn't be parsed.
+	 */
+	public Chunk next() throws IOException {
+		submit();
+		if (running == 0)
+			return null;
+
+		Chunk chunk;
+		try {
+			chunk = ordered ? inFlight.poll().join() : parsed.take();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a chunk.", e);
+		}
+		running--;
+
+		if (chunk.error != null)
+			throw chunk.error;
+
+		rowCounts.put(chunk.index, chunk.rows);
+		while (rowCounts.containsKey(countedIndex)) {
+			if (countedIndex == chunk.index)
+				chunk.firstLine = countedLines;
+			countedLines += rowCounts.remove(countedIndex);
+			countedIndex++;
+		}
+
+		submit();
+		return chunk;
+	}
+
+	/**
+	 * Marks all entries of the chunk as handled.
+	 */
+	public void done(Chunk chunk) {
+		finished.put(chunk.index, chunk);
+
+		while (finished.containsKey(committedIndex)) {
+			Chunk committed = finished.remove(committedIndex);
+			committedLine += committed.rows;
+			committedOffset = committed.end;
+			committedIndex++;
+		}
+	}
+
+	private void submit() throws IOException {
+		while (running < window && nextStart < size) {
+			int index = nextIndex++;
+			long start = nextStart;
+			long end = lineEnd(start + chunkSize - 1);
+			nextStart = end;
+			running++;
+
+			CompletableFuture<Chunk> future = CompletableFuture.supplyAsync(() -> parse(index, start, end),
+					getPool());
+			if (ordered)
+				inFlight.add(future);
+			else
+				future.thenAccept(parsed::add);
+		}
+	}
+
+	/**
+	 * @return The byte offset behind the first line break at or after the given position.
+	 */
+	private long lineEnd(long position) throws IOException {
+		ByteBuffer scan = ByteBuffer.allocate(SCAN_SIZE);
+
+		while (position < size) {
+			scan.clear();
+			int read = channel.read(scan, position);
+			if (read <= 0)
+				break;
+
+			for (int i = 0; i < read; i++) {
+				if (scan.get(i) == '\n')
+					return position + i + 1;
+			}
+			position += read;
+		}
+		return size;
+	}
+
+	private Chunk parse(int index, long start, long end) {
+		Chunk chunk = new Chunk(index, start, end);
+
+		try {
+			int length = (int) (end - start);
+			MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			CharsetDecoder decoder = charset.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			chunk.chars = new char[(int) (length * decoder.maxCharsPerByte()) + 1];
+			chunk.bounds = new int[2 * Math.max(columns.size(), 1) * 64];
+			CharBuffer chars = CharBuffer.wrap(chunk.chars);
+
+			int position = 0;
+			while (position < length) {
+				int lineEnd = position;
+				while (lineEnd < length && bytes.get(lineEnd) != '\n')
+					lineEnd++;
+
+				int contentEnd = lineEnd;
+				if (contentEnd > position && bytes.get(contentEnd - 1) == '\r')
+					contentEnd--;
+
+				int charStart = chars.position();
+				bytes.limit(contentEnd);
+				bytes.position(position);
+				decoder.reset();
+				decoder.decode(bytes, chars, true);
+				decoder.flush(chars);
+				bytes.limit(length);
+
+				position = Math.min(lineEnd + 1, length);
+				chunk.addRow(charStart, chars.position(), start + position);
+			}
+		}
+		catch (Exception e) {
+			chunk.error = e instanceof IOException ? (IOException) e : new IOException(e);
+		}
+
+		return chunk;
+	}
+
+	@Override
+	public void close() throws IOException {
+		inFlight.forEach(f -> f.cancel(false));
+		channel.close();
+		file.close();
+	}
+}
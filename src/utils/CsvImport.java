@@ -1,10 +1,9 @@
 package utils;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -14,24 +13,47 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
 import javax.naming.spi.DirectoryManager;
 
 import utils.*;
 import utils.DB.Account;
+import utils.DB.DB;
 
 /**
  * Part of the example implementation. This is an abstract base class for importing from csv files.
- * By extending this class you only need to implement {@link #handleEntry(Map)} and the 
+ * By extending this class you only need to implement {@link #handleEntry(CsvRow)} and the 
  * {@link #getSerializiationData()} function. Also you will need an deserialization constructor.
+ * 
+ * The file is streamed while the {@link Job} runs, so only the current entry is held in memory, as a
+ * {@link CsvRow} whose buffers are reused for every entry. The progress
+ * is tracked by {@link #currentLine} and {@link #currentOffset}, the byte offset of the next entry.
+ * 
+ * With ImportCommitRows > 0, the entries are handled within a {@link DB.Session}, which commits every
+ * ImportCommitRows entries or ImportCommitMillis milliseconds. The checkpoint of a serialized Job is written
+ * in the same transaction as the entries it covers, so committed entries are never handled again.
+ * 
+ * A large import of a serialized Job is split into byte ranges, which run as partitions of the Job in
+ * parallel, see {@link #isPartitionable()}. Each partition keeps its own checkpoint.
  * @author Christian Chartron
  *
  */
 public abstract class CsvImport extends Job {
 	private List<String> head;
-	private List<Map<String, String>> data;
+	private Map<String, Integer> columns;
+	private String path;
+	private long dataOffset = 0;
 	private boolean initilized = false;
+	private String fingerprint = null;
+	private long partitionEnd = -1;
+	private DB.Session session = null;
+	private boolean entriesFailed = false;
+	private int committedLine = 0;
+	private long committedOffset = 0;
+	private FailSink fails = null;
 	protected int currentLine = 0;
+	protected long currentOffset = 0;
 
 	protected List<String> getHead() {
 		return head;
@@ -41,10 +63,28 @@ public abstract class CsvImport extends Job {
 		return initilized;
 	}
 	
+	/**
+	 * @return True if this import handles a byte range of the source, as a partition of another import.
+	 */
+	public boolean isPartition() {
+		return partitionEnd >= 0;
+	}
+	
+	/**
+	 * Resolves a column name of the {@link #head} to its index, to be used with {@link CsvRow#get(int)}.
+	 * @param name
+	 * @return -1 if the head doesn't contain the column.
+	 */
+	protected int getColumn(String name) {
+		Integer column = columns != null ? columns.get(name) : null;
+		return column != null ? column : -1;
+	}
+	
 	protected CsvImport(Account acc, String path) {
 		super(acc);
 		
-		readFile(path);
+		this.path = path != null ? new File(path).getAbsolutePath() : null;
+		readHead();
 	}
 	
 	/**
@@ -60,139 +100,548 @@ public abstract class CsvImport extends Job {
 		return template;
 	}
 	
-	private void readHead(BufferedReader reader) throws IOException {
-		head = Arrays.asList(reader.readLine().split(";"));		
-	}
-	
-	private void readData(BufferedReader reader) throws IOException {
-		String line = null;
-		data = new ArrayList<Map<String, String>>();
-				
-		while ((line = reader.readLine()) != null) {
-			Map<String, String> entry = new HashMap<String, String>();
-			List<String> splitted = Arrays.asList(line.split(";"));
-			
-			for (String prop : head)
-				entry.put(prop, splitted.get(head.indexOf(prop)));
-			
-			if (entry.size() != head.size())
-				throw new IndexOutOfBoundsException(
-						"readData() failed. Head- size and fetched entry size are not equal.");
+	private void readHead() {
+		try (CsvReader reader = new CsvReader(path, 0)) {
+			String line = reader.readLine();
+			if (line == null)
+				throw new IOException(String.format("readHead() failed. '%s' is empty.", path));
 			
-			data.add(entry);
+			head = Arrays.asList(line.split(";"));
+			columns = new HashMap<String, Integer>();
+			for (int i = head.size() - 1; i >= 0; i--)
+				columns.put(head.get(i), i);
+			dataOffset = reader.getOffset();
+			initilized = true;
+		}
+		catch(IOException e){
+			e.printStackTrace();
 		}
 	}
 	
-	private void readFile(String path) {
-		FileReader fileInput= null;
-		BufferedReader reader = null;
+	/**
+	 * Positions the reader at the next entry to handle. Jobs serialized without an offset are resumed by
+	 * skipping {@link #currentLine} lines.
+	 */
+	private CsvReader openAtCurrentEntry() throws IOException {
+		if (currentOffset > 0)
+			return new CsvReader(path, currentOffset);
+		
+		CsvReader reader = new CsvReader(path, dataOffset);
+		for (int i = 0; i < currentLine && reader.readLine() != null; i++);
+		
+		return reader;
+	}
+	
+	/**
+	 * Copies a volatile source file to the BaseDataPath with a UUID as filename, see 
+	 * {@link #isVolatileSource()}. The data isn't changed by the import, so this is only done once and the
+	 * import continues on the copy.
+	 */
+	protected void save() {
+		if (getSavePath() != null || !isVolatileSource())
+			return;
+		
+		File dir = new File(Settings.getSetting("BaseDataPath"));
+		if (!dir.exists()) {
+			dir.mkdirs();				
+		}
+		
+		String savePath = String.format("%s\\%s.csv",
+				dir.getPath(),java.util.UUID.randomUUID());
 		
 		try {
-			fileInput = new FileReader(path);
-			reader = new BufferedReader(fileInput);
+			setSavePath(new File(savePath).getPath());
+			Files.copy(new File(path).toPath(), new File(getSavePath()).toPath());
+			path = new File(getSavePath()).getAbsolutePath();
+		} catch (IOException e) { System.out.println(e.toString()); }
+	}
+	
+	/**
+	 * Override this if your sources are kept until the import is done, no matter where they are located.
+	 * @return True if the source file isn't located within the BaseDataPath, since it could be removed or
+	 * changed before a suspended import is resumed.
+	 */
+	protected boolean isVolatileSource() {
+		String base = Settings.getSetting("BaseDataPath");
+		if (base == null)
+			return false;
+		
+		return !new File(path).toPath().normalize().startsWith(new File(base).getAbsoluteFile().toPath().normalize());
+	}
+	
+	/**
+	 * Describes the progress of the import by the source file, the line and the byte offset of the next entry
+	 * and a fingerprint of the source. A volatile source is saved first, but apart from that creating a
+	 * checkpoint doesn't depend on the file size.
+	 * @return The data to serialize, see {@link #getSerializiationData()}.
+	 */
+	protected Map<String, Object> getCheckpoint() {
+		save();
+		
+		Map<String, Object> ret = new HashMap<String, Object>();
+		ret.put("source", path);
+		ret.put("currentLine", currentLine);
+		ret.put("currentOffset", currentOffset);
+		ret.put("fingerprint", getFingerprint());
+		if (isPartition())
+			ret.put("partitionEnd", partitionEnd);
+		return ret;
+	}
+	
+	/**
+	 * The bytes left to import, from the offset of a checkpoint to the end of its partition or source. A
+	 * checkpoint without an offset counts the whole source.
+	 * @param data The data created by {@link #getCheckpoint()}.
+	 */
+	@Override
+	protected long getRemainingWork(Map<String, Object> data) {
+		Object source = data.get("source");
+		Object offset = data.get("currentOffset");
+		Object end = data.get("partitionEnd");
+		if (!(source instanceof String))
+			return -1;
+		
+		long from = offset instanceof Number ? ((Number) offset).longValue() : 0;
+		long to = end instanceof Number ? ((Number) end).longValue() : new File((String) source).length();
+		return Math.max(0, to - from);
+	}
+	
+	/**
+	 * Restores the progress of the import from the data created by {@link #getCheckpoint()}. If the source
+	 * file has been changed since then, the import isn't initialized.
+	 * @param args The deserialized data.
+	 */
+	protected void restoreCheckpoint(Map<String, Object> args) {
+		currentLine = ((Number) args.get("currentLine")).intValue();
+		if (args.containsKey("currentOffset"))
+			currentOffset = ((Number) args.get("currentOffset")).longValue();
+		if (args.containsKey("partitionEnd"))
+			partitionEnd = ((Number) args.get("partitionEnd")).longValue();
+		
+		String expected = (String) args.get("fingerprint");
+		if (initilized && expected != null && !expected.equals(getFingerprint())) {
+			System.out.println(String.format("Job: %s can't be resumed. '%s' has been changed.",
+					getDbId(), path));
+			initilized = false;
+		}
+	}
+	
+	/**
+	 * @param args The deserialized data, see {@link #getCheckpoint()}.
+	 * @return The source file to resume the import from. Falls back to the savePath of older checkpoints.
+	 */
+	protected static String getCheckpointSource(Map<String, Object> args) {
+		return (String) (args.containsKey("source") ? args.get("source") : args.get("savePath"));
+	}
+	
+	/**
+	 * The size of the source and a CRC32 of its first and last block. It is computed once per {@link Job}.
+	 */
+	private String getFingerprint() {
+		if (fingerprint != null)
+			return fingerprint;
+		
+		try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+			byte[] block = new byte[64 * 1024];
+			CRC32 crc = new CRC32();
+			long size = file.length();
 			
-			readHead(reader);
-			readData(reader);
+			int read = file.read(block, 0, (int) Math.min(size, block.length));
+			if (read > 0)
+				crc.update(block, 0, read);
+			if (size > block.length) {
+				file.seek(size - block.length);
+				file.readFully(block);
+				crc.update(block);
+			}
 			
-			initilized = true;
+			fingerprint = String.format("%d:%x", size, crc.getValue());
 		}
-		catch(IOException e){
-			e.printStackTrace();
-		}
-		catch(IndexOutOfBoundsException e) {
+		catch (IOException e) {
 			e.printStackTrace();
 		}
-		finally {
+		
+		return fingerprint;
+	}
+	
+	@Override
+	protected void runInternal() {
+		if (isInitilized()) {
+			if (!isPartition() && runPartitioned())
+				return;
+			
+			boolean transactional = Settings.getIntSetting("ImportCommitRows", 1000) > 0;
+			if (transactional && getDbId() != -1)
+				getCheckpoint(); // saves a volatile source before the first commit
+			
+			boolean completed = false;
 			try {
-				if (reader != null) reader.close();
-				if (fileInput != null) fileInput.close();
+				try {
+					CsvPipeline<?> pipeline = usePipeline() ? createPipeline() : null;
+					
+					if (pipeline != null)
+						runPipelined(pipeline, transactional && getDbId() != -1);
+					else {
+						if (transactional)
+							session = DB.getMasterDB(db -> {
+								return db.openSession(Settings.getIntSetting("ImportCommitRows", 1000),
+										Settings.getIntSetting("ImportCommitMillis", 1000));
+							});
+						committedLine = currentLine;
+						committedOffset = currentOffset;
+						
+						if (useChunkParser())
+							runChunked(null);
+						else
+							runStreamed(null);
+					}
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+				}
+				
+				if (session != null)
+					commitProgress();
+				else {
+					flushEntries();
+					if (entriesFailed)
+						System.out.println(String.format("Job: %s couldn't write its entries.", getDbId()));
+				}
+				flushFails();
+				completed = true;
+			}
+			finally {
+				// a RuntimeException mustn't leave the session bound to this pooled thread
+				if (session != null) {
+					session.close();
+					session = null;
+					if (!completed)
+						rollbackProgress(committedLine, committedOffset);
+				}
 			}
-			catch (IOException e) { e.printStackTrace(); }
 		}
 	}
 	
 	/**
-	 * Saves the data to the BaseDataPath with a UUID as filename.
+	 * Counts a handled entry and commits the {@link DB.Session} if it is due.
 	 */
-	protected void save() {
-		File dir = new File(Settings.getSetting("BaseDataPath"));
-		if (getSavePath() == null) { 
-			if (!dir.exists()) {
-				dir.mkdirs();				
-			}
-			
-			String path = String.format("%s\\%s.csv",
-					dir.getPath(),java.util.UUID.randomUUID());
-			
-			setSavePath(new File(path).getPath());
+	private void entryDone() {
+		if (session != null && session.rowDone())
+			commitProgress();
+	}
+	
+	/**
+	 * Flushes the buffered entries and commits them together with the checkpoint covering them. If the entries
+	 * or the commit failed or the {@link Job} was abandoned meanwhile, the transaction is rolled back, the
+	 * progress is reset to the last commit and the import stops.
+	 */
+	private void commitProgress() {
+		flushEntries();
+		flushFails();
+		boolean owned = !entriesFailed && (getDbId() == -1 || saveProgress(getSerializiationData()));
+		
+		if (owned && session.commit()) {
+			committedLine = currentLine;
+			committedOffset = currentOffset;
 		}
-		FileWriter writer = null;
+		else {
+			session.rollback();
+			rollbackProgress(committedLine, committedOffset);
+		}
+	}
+	
+	private void rollbackProgress(int line, long offset) {
+		System.out.println(String.format("Job: %s couldn't commit its entries, continues at line %d.",
+				getDbId(), line));
+		this.currentLine = line;
+		this.currentOffset = offset;
+		discardEntries();
+		synchronized (this) {
+			if (fails != null)
+				fails.discard();
+		}
+		stop();
+	}
+	
+	/**
+	 * Writes the checkpoint for the given position, which may be behind the current one.
+	 * @return False if the {@link Job} isn't owned by this worker anymore.
+	 */
+	private boolean saveProgress(long line, long offset) {
+		flushFails();
+		Map<String, Object> data = new HashMap<String, Object>(getSerializiationData());
+		data.put("currentLine", line);
+		data.put("currentOffset", offset);
+		return saveProgress(data);
+	}
+	
+	/**
+	 * Splits the remaining entries into up to ImportPartitions byte ranges of at least ImportPartitionMinBytes.
+	 * The ranges start at line starts and are serialized as partitions of this {@link Job}.
+	 * @return True if the Job has been partitioned.
+	 */
+	private boolean runPartitioned() {
+		if (getDbId() == -1 || !isPartitionable() || (currentOffset == 0 && currentLine > 0))
+			return false;
+		
+		long start = currentOffset > 0 ? currentOffset : dataOffset;
+		long size = new File(path).length();
+		long minBytes = Math.max(1, Settings.getIntSetting("ImportPartitionMinBytes", 64 * 1024 * 1024));
+		int count = (int) Math.min(Settings.getIntSetting("ImportPartitions", 1), (size - start) / minBytes);
+		if (count < 2)
+			return false;
+		
+		Map<String, Object> data = getSerializiationData();
+		List<Map<String, Object>> partitions = new ArrayList<Map<String, Object>>();
 		try {
-			writer = new FileWriter(getSavePath());
-			
-			List<String> head = getHead();
-			writer.write(String.join(";", head));
-			writer.write("\n");
-			
-			for (Map<String, String> e : data) {
-				List<String> sorted = new ArrayList<String>();
-				for (String prop : head) {
-					sorted.add(e.get(prop));
+			long from = start;
+			for (int i = 1; i <= count; i++) {
+				long to = i == count ? size : lineStart(start + (size - start) * i / count);
+				if (to > from) {
+					Map<String, Object> partition = new HashMap<String, Object>(data);
+					partition.put("currentLine", 0);
+					partition.put("currentOffset", from);
+					partition.put("partitionEnd", to);
+					partitions.add(partition);
 				}
-				writer.write(String.join(";", sorted) + "\n");	
+				from = to;
 			}
-		} catch (IOException e) { System.out.println(e.toString()); }
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		
+		return partition(partitions);
+	}
+	
+	/**
+	 * @return The offset of the first line starting at or behind the given position.
+	 */
+	private long lineStart(long position) throws IOException {
+		try (CsvReader reader = new CsvReader(path, position - 1)) {
+			reader.readLine();
+			return reader.getOffset();
+		}
+	}
+	
+	/**
+	 * Override this to control whether large imports are split into partitions, which are run in parallel
+	 * and in no particular order. Like with {@link #isOrderSensitive()}, {@link #handleEntry(CsvRow)} has to
+	 * be idempotent, since partitions may run concurrently.
+	 * @return True if the import isn't order sensitive.
+	 */
+	protected boolean isPartitionable() {
+		return !isOrderSensitive();
+	}
+	
+	/**
+	 * Files with more than CsvParallelThreshold bytes left are parsed in parallel by the {@link CsvChunkParser}.
+	 */
+	private boolean useChunkParser() {
+		if (currentOffset == 0 && currentLine > 0)
+			return false;
+		
+		long start = currentOffset > 0 ? currentOffset : dataOffset;
+		long end = isPartition() ? partitionEnd : new File(path).length();
+		return end - start >= Settings.getIntSetting("CsvParallelThreshold", 64 * 1024 * 1024);
+	}
+	
+	/**
+	 * Runs the import with CsvPipeline=true. The entries are passed to the stages of the given pipeline,
+	 * which are drained before the progress is taken over.
+	 */
+	private void runPipelined(CsvPipeline<?> pipeline, boolean transactional) throws IOException {
+		pipeline.start(this::reportFail, getMetrics(), transactional ? this::saveProgress : null, currentLine,
+				currentOffset);
+		try {
+			if (useChunkParser())
+				runChunked(pipeline);
+			else
+				runStreamed(pipeline);
+		}
 		finally {
-			if (writer != null) {
-				try {
-					writer.close();
-				}catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}		
+			pipeline.close();
+			if (pipeline.isFailed())
+				rollbackProgress((int) pipeline.getCommittedLine(), pipeline.getCommittedOffset());
+			this.currentLine = (int) pipeline.getCommittedLine();
+			this.currentOffset = pipeline.getCommittedOffset();
+		}
 	}
 	
-	@Override
-	protected void runInternal() {
-		if (isInitilized()) {
-			int lineCount = 0;
-			for (Map<String, String> entry : data) {
-				if (stop)
+	/**
+	 * @param pipeline Gets the entries, null to handle them on this thread.
+	 */
+	private void runStreamed(CsvPipeline<?> pipeline) throws IOException {
+		try (CsvReader reader = openAtCurrentEntry()) {
+			CsvRow row = new CsvRow(columns);
+			
+			while (!stop && (!isPartition() || currentOffset < partitionEnd) && reader.readRow(row)) {
+				if (pipeline == null)
+					handle(row, currentLine, currentOffset);
+				else if (!pipeline.submit(row, currentLine, currentOffset, reader.getOffset()))
 					break;
-				if (lineCount == currentLine) {
-				List<String> fail = handleEntry(entry);
-				writeFail(fail);
-				}
-
-				lineCount = lineCount + 1;
-				this.currentLine = lineCount;
+				
+				this.currentLine = currentLine + 1;
+				this.currentOffset = reader.getOffset();
+				if (pipeline == null)
+					entryDone();
 			}
 		}
 	}
 	
 	/**
-	 * Writes the given fails to console.
-	 * @param failed
+	 * @param pipeline Gets the entries in file order, null to handle them on this thread.
 	 */
-	private void writeFail(List<String> failed) {
-		if (failed.isEmpty())
-			return;
-		
-		System.out.println("Fail Start");
+	private void runChunked(CsvPipeline<?> pipeline) throws IOException {
+		boolean ordered = pipeline != null || session != null || isOrderSensitive();
+		long start = currentOffset > 0 ? currentOffset : dataOffset;
 		
-		for (String fail : failed) {
-			System.out.println(String.format("Line %s: '%s'", Integer.toString(currentLine), fail ));
+		try (CsvChunkParser parser = new CsvChunkParser(path, start, partitionEnd, currentLine, columns,
+				ordered)) {
+			CsvRow row = new CsvRow(columns);
+			CsvChunkParser.Chunk chunk = null;
+			
+			while (!stop && (chunk = parser.next()) != null) {
+				long firstLine = chunk.getFirstLine();
+				int i = 0;
+				
+				for (; i < chunk.getRows() && !stop; i++) {
+					chunk.view(i, row);
+					if (pipeline == null)
+						handle(row, firstLine >= 0 ? firstLine + i : -1, chunk.getRowStart(i));
+					else if (!pipeline.submit(row, firstLine + i, chunk.getRowStart(i), chunk.getRowEnd(i)))
+						stop();
+					
+					if (ordered) {
+						this.currentLine = currentLine + 1;
+						this.currentOffset = chunk.getRowEnd(i);
+						if (pipeline == null)
+							entryDone();
+					}
+				}
+				
+				if (i == chunk.getRows())
+					parser.done(chunk);
+				if (!ordered) {
+					this.currentLine = (int) parser.getCommittedLine();
+					this.currentOffset = parser.getCommittedOffset();
+				}
+			}
 		}
-
-		System.out.println("Fail End");
+	}
+	
+	/**
+	 * Passes a complete entry to {@link #handleEntry(CsvRow)} and writes its fails.
+	 * @param line The line number or -1 if it isn't known.
+	 * @param offset The byte offset of the entry.
+	 */
+	private void handle(CsvRow row, long line, long offset) {
+		long start = System.nanoTime();
+		List<String> fail = row.isComplete() ? handleEntry(row)
+				: Arrays.asList("Head- size and fetched entry size are not equal.");
+		getMetrics().entryHandled(start, !fail.isEmpty());
+		
+		reportFail(line, offset, fail.isEmpty() ? null : row.getText(), fail);
+	}
+	
+	/**
+	 * Passes the fails of an entry to the {@link FailSink}.
+	 * @param line The line number or -1 if it isn't known. Partitions only know the offset.
+	 * @param offset The byte offset of the entry.
+	 * @param entry The entry as it is in the source.
+	 */
+	private void reportFail(long line, long offset, String entry, List<String> fail) {
+		if (!fail.isEmpty())
+			getFailSink().add(!isPartition() ? line : -1, offset, entry, fail);
+	}
+	
+	/**
+	 * Override this and return false if your importer doesn't depend on the order of the entries. Large files
+	 * are then handled in the order their chunks get parsed. On resume, entries behind the first chunk which
+	 * wasn't completely handled are handled again, so {@link #handleEntry(CsvRow)} has to be idempotent.
+	 * @return True by default.
+	 */
+	protected boolean isOrderSensitive() {
+		return true;
+	}
+	
+	/**
+	 * @return True if the pipelined mode is enabled by CsvPipeline=true, see {@link #createPipeline()}.
+	 */
+	protected boolean usePipeline() {
+		return Boolean.parseBoolean(Settings.getSetting("CsvPipeline", "false"));
+	}
+	
+	/**
+	 * Override this to support the pipelined mode, see {@link #usePipeline()}. The entries are then
+	 * validated and written by the stages of the returned {@link CsvPipeline} instead of
+	 * {@link #handleEntry(CsvRow)}.
+	 * @return Null by default, the entries are handled one by one on the {@link Job}'s thread.
+	 */
+	protected CsvPipeline<?> createPipeline() {
+		return null;
+	}
+	
+	/**
+	 * Gets called after the last handled entry, before the {@link Job} is done or suspended. Override it if 
+	 * your importer buffers entries in {@link #handleEntry(CsvRow)} to write them in batches.
+	 */
+	protected void flushEntries() {
+	}
+	
+	/**
+	 * Call it if {@link #flushEntries()} couldn't write buffered entries. The import stops, within a transaction
+	 * it is rolled back at the next commit, so the entries are handled again when the {@link Job} is resumed.
+	 */
+	protected void failEntries() {
+		entriesFailed = true;
+		stop();
+	}
+	
+	/**
+	 * Gets called if a transaction couldn't be committed and has been rolled back. Override it if your
+	 * importer keeps state about the written entries, e.g. caches. The entries since the last commit are
+	 * handled again when the {@link Job} is resumed.
+	 */
+	protected void discardEntries() {
+	}
+	
+	/**
+	 * @return The {@link FailSink} of this import, created on the first failed entry.
+	 */
+	private synchronized FailSink getFailSink() {
+		if (fails == null)
+			fails = new FailSink(getDbId(), head);
+		return fails;
+	}
+	
+	private synchronized void flushFails() {
+		if (fails != null)
+			fails.flush();
+	}
+	
+	/**
+	 * @return The amount of failed entries and where they are written.
+	 */
+	@Override
+	protected synchronized String getSummary() {
+		return fails != null || getDbId() != -1 ? getFailSink().getSummary() : null;
+	}
+	
+	/**
+	 * @return The amount of failed entries of all partitions and where they are written.
+	 */
+	@Override
+	protected String getPartitionedSummary(int parentId) {
+		return FailSink.getSummary(parentId);
 	}
 	
 	/**
 	 * This methods needs to be implemented by the special importer.
 	 * It handles the import line- wise.
-	 * @param entry One entry of data.
+	 * @param entry One entry of data. It is only valid until this method returns.
 	 * @return Contains all failed properties and the reason for failing
 	 */
-	protected abstract List<String> handleEntry(Map<String, String> entry);
+	protected abstract List<String> handleEntry(CsvRow entry);
 }
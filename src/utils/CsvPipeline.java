@@ -0,0 +1,359 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import utils.DB.DB;
+import utils.metrics.JobMetrics;
+
+/**
+ * Part of the example implementation. Connects the stages of a pipelined {@link CsvImport}: the import's
+ * thread parses the entries (in parallel for large files, see {@link CsvChunkParser}), CsvValidateParallelism
+ * threads validate them and a single writer thread writes the validated items in batches.
+ *
+ * At most CsvPipelineCapacity entries are in flight. If the writer falls behind, the validation stage and
+ * then the parser are blocked. The writer gets the items in the order of the entries, so the committed
+ * position is always the end of a contiguous prefix of the file. It is only one thread for that reason.
+ * {@link #close()} drains all submitted entries, so nothing is lost when the import stops.
+ *
+ * If a {@link ProgressHandler} is given, the writer runs within a {@link DB.Session} and commits every batch
+ * together with the checkpoint covering it. After a failed write or commit the batch is rolled back and nothing
+ * is written anymore, the committed position stays at the last commit, see {@link #isFailed()}.
+ * @author Christian Chartron
+ *
+ * @param <T> The type of the validated items.
+ */
+public class CsvPipeline<T> implements AutoCloseable {
+	private static final long IDLE_MILLIS = 100;
+
+	/**
+	 * The validation stage. It is called concurrently.
+	 */
+	@FunctionalInterface
+	public interface Validator<T> {
+		/**
+		 * @param entry A copy of the entry, which stays valid.
+		 * @param fails Takes the fails of the entry.
+		 * @return The item to write or null if nothing is written for this entry.
+		 */
+		T validate(CsvRow entry, List<String> fails) throws Exception;
+	}
+
+	/**
+	 * The writer stage. It is called by a single thread.
+	 */
+	@FunctionalInterface
+	public interface Writer<T> {
+		/**
+		 * @param items Up to the batch size of items, in the order of their entries.
+		 */
+		void write(List<T> items) throws Exception;
+	}
+
+	@FunctionalInterface
+	interface FailHandler {
+		void fail(long line, long offset, String entry, List<String> fails);
+	}
+
+	@FunctionalInterface
+	interface ProgressHandler {
+		/**
+		 * Writes the checkpoint for the given position, within the writer's transaction.
+		 * @return False if the batch must be rolled back instead of committed.
+		 */
+		boolean save(long line, long offset);
+	}
+
+	private static class Entry<T> {
+		private final long index;
+		private final long line;
+		private final long offset;
+		private final long end;
+		private CsvRow row;
+		private T item = null;
+		private List<String> fails = Collections.emptyList();
+		private String text = null;
+
+		private Entry(long index, long line, long offset, long end, CsvRow row) {
+			this.index = index;
+			this.line = line;
+			this.offset = offset;
+			this.end = end;
+			this.row = row;
+		}
+	}
+
+	private final int batchSize;
+	private final int capacity;
+	private final Validator<T> validator;
+	private final Writer<T> writer;
+	private final Semaphore window;
+	private final BlockingQueue<Entry<T>> validated;
+	private ThreadPoolExecutor validators = null;
+	private Thread writerThread = null;
+	private FailHandler failHandler = null;
+	private JobMetrics metrics = null;
+	private ProgressHandler progress = null;
+	private DB.Session session = null;
+	private volatile boolean failed = false;
+
+	private long submitted = 0;
+	private volatile long total = -1;
+	private volatile long committedLine;
+	private volatile long committedOffset;
+
+	/**
+	 * @param batchSize The maximum amount of items passed to the {@link Writer} at once.
+	 * @param validator
+	 * @param writer
+	 */
+	public CsvPipeline(int batchSize, Validator<T> validator, Writer<T> writer) {
+		this.batchSize = Math.max(1, batchSize);
+		this.capacity = Math.max(Settings.getIntSetting("CsvPipelineCapacity", 4096), 2 * this.batchSize);
+		this.validator = validator;
+		this.writer = writer;
+		window = new Semaphore(capacity);
+		validated = new ArrayBlockingQueue<Entry<T>>(capacity);
+	}
+
+	/**
+	 * @return The maximum amount of entries in flight.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return The line behind the last written entry.
+	 */
+	public long getCommittedLine() {
+		return committedLine;
+	}
+
+	/**
+	 * @return The byte offset behind the last written entry.
+	 */
+	public long getCommittedOffset() {
+		return committedOffset;
+	}
+
+	/**
+	 * Starts the validation and writer threads.
+	 * @param failHandler Gets the fails of the entries, in the order of the entries.
+	 * @param metrics Gets the times of the stages.
+	 * @param progress Writes the checkpoints in the writer's transaction, null to write without a session.
+	 * @param line The line number of the first entry.
+	 * @param offset The byte offset of the first entry.
+	 */
+	void start(FailHandler failHandler, JobMetrics metrics, ProgressHandler progress, long line, long offset) {
+		this.failHandler = failHandler;
+		this.metrics = metrics;
+		this.progress = progress;
+		committedLine = line;
+		committedOffset = offset;
+
+		int parallelism = Math.max(1, Settings.getIntSetting("CsvValidateParallelism", 4));
+		boolean readYourWrites = DB.isReadYourWrites();
+		validators = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(capacity), r -> {
+					Thread thread = new Thread(() -> {
+						DB.setReadYourWrites(readYourWrites);
+						r.run();
+					}, "CsvPipeline-validate");
+					thread.setDaemon(true);
+					return thread;
+				});
+
+		writerThread = new Thread(this::runWriter, "CsvPipeline-write");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * @return True if a commit failed. The committed position is the one of the last successful commit.
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	/**
+	 * Passes a parsed entry to the validation stage. Blocks while the pipeline is full.
+	 * @param row The entry, it is copied.
+	 * @param line The line number of the entry.
+	 * @param offset The byte offset of the entry.
+	 * @param end The byte offset behind the entry.
+	 * @return False if the thread got interrupted while waiting or a commit failed.
+	 */
+	boolean submit(CsvRow row, long line, long offset, long end) {
+		if (failed)
+			return false;
+
+		try {
+			window.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		Entry<T> entry = new Entry<T>(submitted++, line, offset, end, row.copy());
+		validators.execute(() -> validate(entry));
+		return true;
+	}
+
+	private void validate(Entry<T> entry) {
+		List<String> fails = new ArrayList<String>();
+		long start = System.nanoTime();
+		try {
+			if (entry.row.isComplete())
+				entry.item = validator.validate(entry.row, fails);
+			else
+				fails.add("Head- size and fetched entry size are not equal.");
+		}
+		catch (Exception e) {
+			fails.add(e.toString());
+		}
+
+		metrics.entryValidated(start);
+		entry.fails = fails;
+		if (!fails.isEmpty())
+			entry.text = entry.row.getText();
+		entry.row = null;
+		validated.add(entry);
+	}
+
+	/**
+	 * The writer thread, within a {@link DB.Session} if the checkpoints are written by the pipeline.
+	 */
+	private void runWriter() {
+		if (progress != null)
+			session = DB.getMasterDB(db -> {
+				return db.openSession(Integer.MAX_VALUE, Long.MAX_VALUE);
+			});
+
+		try {
+			write();
+		}
+		finally {
+			if (session != null)
+				session.close();
+		}
+	}
+
+	/**
+	 * Puts the validated entries back in order and writes their items in batches. A batch is written if it is
+	 * full, no entry arrived for a while or half of the capacity is held by entries without items. The
+	 * committed position advances after each batch.
+	 */
+	private void write() {
+		Map<Long, Entry<T>> ready = new HashMap<Long, Entry<T>>();
+		List<T> batch = new ArrayList<T>(batchSize);
+		Entry<T> last = null;
+		int handled = 0;
+		int failed = 0;
+		long next = 0;
+
+		while (true) {
+			Entry<T> entry = null;
+			try {
+				entry = validated.poll(IDLE_MILLIS, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e) {
+				System.out.println(String.format("CsvPipeline: Writer interrupted: %s", e.toString()));
+			}
+
+			boolean idle = entry == null;
+			if (entry != null)
+				ready.put(entry.index, entry);
+
+			while ((entry = ready.remove(next)) != null) {
+				next++;
+				if (!entry.fails.isEmpty()) {
+					failHandler.fail(entry.line, entry.offset, entry.text, entry.fails);
+					failed++;
+				}
+				if (entry.item != null)
+					batch.add(entry.item);
+				last = entry;
+				handled++;
+
+				if (batch.size() >= batchSize || handled >= capacity / 2) {
+					commit(batch, last, handled, failed);
+					handled = 0;
+					failed = 0;
+				}
+			}
+
+			boolean drained = total >= 0 && next == total;
+			if (handled > 0 && (idle || drained)) {
+				commit(batch, last, handled, failed);
+				handled = 0;
+				failed = 0;
+			}
+
+			if (drained)
+				break;
+		}
+	}
+
+	private void commit(List<T> batch, Entry<T> last, int handled, int failed) {
+		long start = System.nanoTime();
+		if (!this.failed) {
+			try {
+				if (!batch.isEmpty())
+					writer.write(batch);
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+				this.failed = true;
+				if (session != null)
+					session.rollback();
+			}
+
+			if (session != null && !this.failed) {
+				if (progress.save(last.line + 1, last.end))
+					this.failed = !session.commit();
+				else {
+					session.rollback();
+					this.failed = true;
+				}
+			}
+		}
+
+		metrics.batchWritten(start, handled, failed);
+		batch.clear();
+		if (!this.failed) {
+			committedLine = last.line + 1;
+			committedOffset = last.end;
+		}
+		window.release(handled);
+	}
+
+	/**
+	 * Waits until all submitted entries are written and stops the threads.
+	 */
+	@Override
+	public void close() {
+		total = submitted;
+
+		try {
+			if (writerThread != null)
+				writerThread.join();
+		}
+		catch (InterruptedException e) {
+			System.out.println(String.format("CsvPipeline: Drain interrupted: %s", e.toString()));
+			Thread.currentThread().interrupt();
+		}
+
+		if (validators != null)
+			validators.shutdown();
+	}
+}
@@ -0,0 +1,140 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Part of the example implementation. Reads a csv file line by line and keeps track of the byte offset of the
+ * next line. This lets a {@link CsvImport} stream its data and resume at a stored offset without reading the
+ * lines before.
+ * @author Christian Chartron
+ *
+ */
+public class CsvReader implements Closeable {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final FileInputStream input;
+	private final Charset charset = Charset.defaultCharset();
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position = 0;
+	private int limit = 0;
+	private byte[] line = new byte[256];
+	private final CharsetDecoder decoder = charset.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private ByteBuffer byteBuffer = ByteBuffer.wrap(line);
+	private CharBuffer charBuffer = null;
+	private long offset;
+
+	/**
+	 * Opens the file and seeks to the given offset.
+	 * @param path
+	 * @param offset The byte offset of the first line to read. Has to be the start of a line.
+	 * @throws IOException
+	 */
+	public CsvReader(String path, long offset) throws IOException {
+		input = new FileInputStream(path);
+		input.getChannel().position(offset);
+		this.offset = offset;
+	}
+
+	/**
+	 * @return The byte offset of the line which is returned by the next {@link #readLine()} call.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Reads the next line without its line break.
+	 * @return Null if the end of the file is reached.
+	 * @throws IOException
+	 */
+	public String readLine() throws IOException {
+		int length = readLineBytes();
+
+		return length >= 0 ? new String(line, 0, length, charset) : null;
+	}
+
+	/**
+	 * Reads the next line into the given row. The buffers of the row are reused.
+	 * @param row
+	 * @return False if the end of the file is reached.
+	 * @throws IOException
+	 */
+	public boolean readRow(CsvRow row) throws IOException {
+		int length = readLineBytes();
+		if (length < 0)
+			return false;
+
+		char[] chars = row.buffer((int) (length * decoder.maxCharsPerByte()) + 1);
+		if (byteBuffer.array() != line)
+			byteBuffer = ByteBuffer.wrap(line);
+		if (charBuffer == null || charBuffer.array() != chars)
+			charBuffer = CharBuffer.wrap(chars);
+
+		byteBuffer.limit(length).position(0);
+		charBuffer.clear();
+		decoder.reset();
+		decoder.decode(byteBuffer, charBuffer, true);
+		decoder.flush(charBuffer);
+
+		row.tokenize(charBuffer.position());
+		return true;
+	}
+
+	/**
+	 * Reads the bytes of the next line without its line break into {@link #line}.
+	 * @return The length of the line or -1 if the end of the file is reached.
+	 */
+	private int readLineBytes() throws IOException {
+		int length = 0;
+		boolean eof = false;
+
+		while (true) {
+			if (position == limit && !fill()) {
+				eof = true;
+				break;
+			}
+
+			byte b = buffer[position++];
+			offset++;
+			if (b == '\n')
+				break;
+
+			if (length == line.length)
+				line = Arrays.copyOf(line, length * 2);
+			line[length++] = b;
+		}
+
+		if (eof && length == 0)
+			return -1;
+		if (length > 0 && line[length - 1] == '\r')
+			length--;
+
+		return length;
+	}
+
+	private boolean fill() throws IOException {
+		limit = input.read(buffer);
+		position = 0;
+
+		if (limit <= 0) {
+			limit = 0;
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+}
@@ -0,0 +1,149 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Part of the example implementation. A flyweight view of one csv entry. The row is backed by a char buffer and
+ * the offsets of its fields, both reused for the next entry, so reading an entry doesn't allocate anything
+ * until a field is requested. Fields are accessed by their column index, the column names of the head are
+ * resolved to indexes once per file.
+ *
+ * A row is only valid until the next entry is read. Use {@link #copy()} if you need to keep it.
+ * @author Christian Chartron
+ *
+ */
+public class CsvRow {
+	public static final char DELIMITER = ';';
+
+	private final Map<String, Integer> columns;
+	private char[] chars;
+	private int[] bounds;
+	private int base = 0;
+	private int fields = 0;
+	private boolean shared = false;
+
+	/**
+	 * @param columns Maps the column names of the head to their index.
+	 */
+	public CsvRow(Map<String, Integer> columns) {
+		this.columns = columns;
+		chars = new char[256];
+		bounds = new int[2 * Math.max(columns.size(), 1)];
+	}
+
+	/**
+	 * @return The amount of fields of this entry.
+	 */
+	public int size() {
+		return fields;
+	}
+
+	/**
+	 * @return False if the entry has less fields than the head.
+	 */
+	public boolean isComplete() {
+		return fields >= columns.size();
+	}
+
+	/**
+	 * @param name A column name of the head.
+	 * @return The index of the column or -1 if the head doesn't contain it.
+	 */
+	public int getColumn(String name) {
+		Integer column = columns.get(name);
+		return column != null ? column : -1;
+	}
+
+	/**
+	 * @param column The index of the column.
+	 * @return Null if the entry has no such field.
+	 */
+	public String get(int column) {
+		if (column < 0 || column >= fields)
+			return null;
+
+		int start = bounds[base + 2 * column];
+		return new String(chars, start, bounds[base + 2 * column + 1] - start);
+	}
+
+	/**
+	 * @param name A column name of the head.
+	 * @return Null if the entry has no such field.
+	 */
+	public String get(String name) {
+		return get(getColumn(name));
+	}
+
+	/**
+	 * @return The entry as it is in the source, without the line break.
+	 */
+	public String getText() {
+		int start = fields > 0 ? bounds[base] : 0;
+		int end = fields > 0 ? bounds[base + 2 * fields - 1] : 0;
+		return new String(chars, start, end - start);
+	}
+
+	/**
+	 * @return A row which holds its own copy of the data and stays valid.
+	 */
+	public CsvRow copy() {
+		int start = fields > 0 ? bounds[base] : 0;
+		int end = fields > 0 ? bounds[base + 2 * fields - 1] : 0;
+		CsvRow copy = new CsvRow(columns);
+
+		copy.chars = Arrays.copyOfRange(chars, start, end);
+		copy.bounds = new int[Math.max(2 * fields, 2)];
+		for (int i = 0; i < 2 * fields; i++)
+			copy.bounds[i] = bounds[base + i] - start;
+		copy.fields = fields;
+		return copy;
+	}
+
+	/**
+	 * Points this row at an entry parsed by the {@link CsvChunkParser}. The buffers stay owned by the chunk.
+	 */
+	void view(char[] chars, int[] bounds, int base, int fields) {
+		this.chars = chars;
+		this.bounds = bounds;
+		this.base = base;
+		this.fields = fields;
+		shared = true;
+	}
+
+	/**
+	 * @param capacity The amount of chars the next entry needs.
+	 * @return The buffer to decode the next entry into.
+	 */
+	char[] buffer(int capacity) {
+		if (shared) {
+			chars = new char[Math.max(capacity, 256)];
+			bounds = new int[2 * Math.max(columns.size(), 1)];
+			shared = false;
+		}
+		else if (chars.length < capacity)
+			chars = new char[Math.max(capacity, chars.length * 2)];
+		return chars;
+	}
+
+	/**
+	 * Splits the first length chars of the buffer into fields.
+	 */
+	void tokenize(int length) {
+		int start = 0;
+		base = 0;
+		fields = 0;
+
+		for (int i = 0; i <= length; i++) {
+			if (i == length || chars[i] == DELIMITER) {
+				if (2 * fields + 1 >= bounds.length)
+					bounds = Arrays.copyOf(bounds, bounds.length * 2);
+
+				bounds[2 * fields] = start;
+				bounds[2 * fields + 1] = i;
+				fields++;
+				start = i + 1;
+			}
+		}
+	}
+}
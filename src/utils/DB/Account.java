@@ -1,11 +1,17 @@
 package utils.DB;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import javax.naming.AuthenticationException;
 
+import utils.Settings;
+
 /**
  * An Account is needed to create, modify or load Contacts. Also it is needed to create a Job. This class
  * provides an access restriction for data. 
@@ -14,6 +20,26 @@ import javax.naming.AuthenticationException;
  */
 public class Account extends DbItem {
 	
+	private static final ItemCache<Integer, Account> byId = new ItemCache<Integer, Account>(
+			Settings.getIntSetting("AccountCacheSize", 1000),
+			Settings.getIntSetting("AccountCacheTtlSeconds", 300) * 1000L);
+	private static final ItemCache<String, Login> byName = new ItemCache<String, Login>(
+			Settings.getIntSetting("AccountCacheSize", 1000),
+			Settings.getIntSetting("AccountCacheTtlSeconds", 300) * 1000L);
+	
+	/**
+	 * A cached authentication. Only a digest of the password is kept in memory.
+	 */
+	private static class Login {
+		private final Account account;
+		private final String digest;
+		
+		private Login(Account account, String digest) {
+			this.account = account;
+			this.digest = digest;
+		}
+	}
+	
 	private String name;
 	private String mail;
 	
@@ -42,10 +68,10 @@ public class Account extends DbItem {
 	{
 		super("accounts");
 		
-		String where = String.format("Where name='%s' AND password='%s'", name, psswd);
 		try {
 			DB.getMasterDB(db -> {
-				List<Map<String, Object>> res = db.select(getTable(), "dbId, mail", where);
+				List<Map<String, Object>> res = db.select(getTable(), "dbId, mail",
+						"Where name=? AND password=?", name, psswd);
 				
 				if (!res.isEmpty()) {
 					dbId = (int) res.get(0).get("dbId");
@@ -59,6 +85,17 @@ public class Account extends DbItem {
 		catch (IndexOutOfBoundsException e) { System.out.println(e.toString()); }
 	}	
 	
+	/**
+	 * Copies an Account, the caches only hand out copies of the Accounts they hold.
+	 */
+	private Account(Account account) {
+		super("accounts");
+		
+		dbId = account.dbId;
+		name = account.name;
+		mail = account.mail;
+	}
+	
 	/**
 	 * Creates a new Account. You have to call {@link #commitChanges()} to write the Account to DB.
 	 * 
@@ -85,28 +122,45 @@ public class Account extends DbItem {
 	}
 	
 	/**
-	 * Loads an Account by name and password.
+	 * Loads an Account by name and password. Authenticated Accounts are cached for AccountCacheTtlSeconds,
+	 * every call returns a new copy. Within a {@link UnitOfWork} the Account joins it.
 	 * @param name
 	 * @param psswd
 	 * @return Null if no account could be found.
 	 */
 	public static Account load(String name, String psswd)
 	{
+		String digest = digest(psswd);
+		Login login = byName.get(name);
+		if (login != null && login.digest.equals(digest))
+			return UnitOfWork.joinCurrent(new Account(login.account));
+		
 		Account acc = null;
 		try { acc = new Account(name, psswd); }
 		catch (AuthenticationException e) { e.printStackTrace(); }
 		
-		return acc.isAuthenticated() ? acc : null;
+		if (!acc.isAuthenticated())
+			return null;
+		
+		Account cached = new Account(acc);
+		byName.put(name, new Login(cached, digest));
+		byId.put(acc.getDbId(), cached);
+		return UnitOfWork.joinCurrent(acc);
 	}
 	
 	/**
-	 * Loads an Account by dbId. 
+	 * Loads an Account by dbId. Authenticated Accounts are cached for AccountCacheTtlSeconds, every call returns
+	 * a new copy.
 	 * @param dbId
 	 * @return Null if no Account could be found.
 	 */
 	public static Account load(int dbId) {
+		Account cached = byId.get(dbId);
+		if (cached != null)
+			return UnitOfWork.joinCurrent(new Account(cached));
+		
 		List<Map<String, Object>> data = DB.getMasterDB(db -> {
-			return db.select("accounts", "name, password", "Where dbId=" + dbId);
+			return db.select("accounts", "name, password", "Where dbId=?", dbId);
 		});
 		
 		if (data.isEmpty())
@@ -114,4 +168,32 @@ public class Account extends DbItem {
 		
 		return Account.load((String) data.get(0).get("name"), (String) data.get(0).get("password"));				
 	}
+	
+	/**
+	 * Removes the written Account from the cache.
+	 */
+	@Override
+	protected void onCommitted() {
+		byId.invalidate(dbId);
+		if (name != null)
+			byName.invalidate(name);
+	}
+	
+	/**
+	 * Removes all cached Accounts, e.g. after Accounts were deleted.
+	 */
+	public static void clearCache() {
+		byId.clear();
+		byName.clear();
+	}
+	
+	private static String digest(String psswd) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(psswd.getBytes(StandardCharsets.UTF_8));
+			return Base64.getEncoder().encodeToString(hash);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
 }
@@ -3,21 +3,40 @@ package utils.DB;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import snaq.db.ConnectionPool;
 import snaq.db.DBPoolDataSource;
 import utils.Settings;
+import utils.metrics.Metrics;
+import utils.metrics.PoolMetrics;
 
 /**
  * This class implements DB access functionality. The connection configuration is done through settings.config.
@@ -25,28 +44,203 @@ import utils.Settings;
  * 
  * The database access is pooled by DBpool 7.0 framework.
  * 
- * Use the {@link DB#getMasterDB(Function)} to access DB functionality.
+ * All statements are sent as {@link PreparedStatement}s. Values are bound to '?' placeholders, so use these
+ * in where clauses instead of formatting values into the sql. The pool caches the prepared statements per
+ * connection and the driver prepares them on the server, so a hot statement is parsed once per connection.
+ * 
+ * Use the {@link DB#getMasterDB(Function)} to access DB functionality. {@link DB#getMasterDBAsync(Function)}
+ * runs the block on a DB I/O thread instead, so the caller can go on while the statements are in flight.
+ * 
+ * Reads which may lag behind the writes use {@link DB#getReadDB(Function)}. It routes to one of the read
+ * replicas listed by ReplicaDbs, e.g. ReplicaDbs=replica1,replica2 with replica1Url and so on configured like
+ * the master. ReplicaRouting=leastload picks the replica with the fewest connections in use, any other value
+ * rotates over them. Without replicas the master DB is used.
  * @author Christian Chartron
  *
  */
 public class DB {
 	
-	private static DB masterDB;
+	/**
+	 * The maximum amount of entries which are sent in one statement by {@link #insertBatch(String, List)}.
+	 */
+	public static final int BATCH_SIZE = 500;
+	
+	/**
+	 * The amount of rows fetched per round trip by {@link #stream(String, RowMapper, Object...)}.
+	 */
+	public static final int FETCH_SIZE = 1000;
+	
+	/**
+	 * The maximum amount of pooled connections.
+	 */
+	public static final int MAX_CONNECTIONS = 10;
+	
+	/**
+	 * The connections a running {@link utils.Job} may hold at once, e.g. the one of its {@link Session} and one
+	 * of its pipeline writer or a read.
+	 */
+	public static final int CONNECTIONS_PER_JOB = 2;
+	
+	/**
+	 * The connections kept free of Jobs for claiming and renewing leases.
+	 */
+	public static final int RESERVED_CONNECTIONS = 2;
+	
+	/**
+	 * The amount of DB I/O threads of {@link #async(Function)}, DbAsyncThreads. Each of them may hold a
+	 * connection, so they are left to the connections neither reserved nor needed by at least one Job.
+	 */
+	public static final int ASYNC_THREADS = Math.max(1, Math.min(Settings.getIntSetting("DbAsyncThreads", 2),
+			MAX_CONNECTIONS - RESERVED_CONNECTIONS - CONNECTIONS_PER_JOB));
+	
+	/**
+	 * Maps the current row of a {@link ResultSet} to an object.
+	 */
+	@FunctionalInterface
+	public interface RowMapper<T> {
+		T map(ResultSet row) throws SQLException;
+	}
+	
+	private static volatile DB masterDB;
+	private static volatile List<DB> replicaDBs;
+	private static final AtomicInteger nextReplica = new AtomicInteger();
+	private static final ThreadLocal<Boolean> readYourWrites = new ThreadLocal<Boolean>();
 	private ConnectionPool pool = null;
+	private final long connectMillis = Settings.getIntSetting("DbConnectMillis", 10000);
+	private final ThreadLocal<Session> session = new ThreadLocal<Session>();
+	private final ThreadPoolExecutor io;
+	private final ThreadLocal<Boolean> onIo = new ThreadLocal<Boolean>();
+	private boolean replica = false;
+	
+	/**
+	 * A transaction on one connection, bound to the thread which opened it. While the session is open, all
+	 * statements of this thread against the {@link DB} run on its connection, except for
+	 * {@link DB#stream(String, RowMapper, Object...)}. So a {@link utils.Job} keeps one connection and commits
+	 * every maxRows rows or maxMillis milliseconds, see {@link #rowDone()}, instead of once per statement.
+	 * Anything not committed is rolled back on {@link #close()}.
+	 */
+	public class Session implements AutoCloseable {
+		private final Connection con;
+		private final int maxRows;
+		private final long maxMillis;
+		private int rows = 0;
+		private long lastCommit = System.currentTimeMillis();
+		private boolean failed = false;
+		
+		private Session(Connection con, int maxRows, long maxMillis) {
+			this.con = con;
+			this.maxRows = maxRows;
+			this.maxMillis = maxMillis;
+		}
+		
+		/**
+		 * Counts a finished row.
+		 * @return True if maxRows rows are done or maxMillis milliseconds are elapsed since the last commit, so
+		 * the caller should commit.
+		 */
+		public boolean rowDone() {
+			rows++;
+			return rows >= maxRows || System.currentTimeMillis() - lastCommit >= maxMillis;
+		}
+		
+		/**
+		 * Commits the transaction. If a statement of a batch failed, it is rolled back instead.
+		 * @return False if the transaction has been rolled back.
+		 */
+		public boolean commit() {
+			if (failed) {
+				rollback();
+				return false;
+			}
+			
+			try {
+				con.commit();
+				rows = 0;
+				lastCommit = System.currentTimeMillis();
+				return true;
+			}
+			catch (SQLException e) {
+				e.printStackTrace();
+				rollback();
+				return false;
+			}
+		}
+		
+		public void rollback() {
+			try {
+				con.rollback();
+			}
+			catch (SQLException e) {
+				e.printStackTrace();
+			}
+			failed = false;
+			rows = 0;
+			lastCommit = System.currentTimeMillis();
+		}
+		
+		/**
+		 * Rolls back anything not committed, returns the connection to the pool and unbinds the session.
+		 */
+		@Override
+		public void close() {
+			session.remove();
+			try {
+				con.rollback();
+				con.setAutoCommit(true);
+				con.close();
+			}
+			catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
 	
 	/**
 	 * @param Fetches the configuration from settings.config. Loads 'name' + property.
 	 */
 	private DB(String name) {
+		io = new ThreadPoolExecutor(ASYNC_THREADS, ASYNC_THREADS, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Settings.getIntSetting("DbAsyncQueue", 1000)), r -> {
+					Thread thread = new Thread(() -> {
+						onIo.set(Boolean.TRUE);
+						r.run();
+					}, name + "-io");
+					thread.setDaemon(true);
+					return thread;
+				}, (r, executor) -> {
+					// an I/O thread waiting for the queue it drains itself would never wake up
+					if (Boolean.TRUE.equals(onIo.get())) {
+						r.run();
+						return;
+					}
+					
+					try {
+						executor.getQueue().put(r);
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException(e);
+					}
+				});
+		io.allowCoreThreadTimeOut(true);
+		
 		try {
 			Driver drv = (Driver) Class.forName(Settings.getSetting(name + "Driver"))
 					.newInstance();
 			DriverManager.registerDriver(drv);
 
-			pool = new ConnectionPool(name, 5, 10, 30, 180,
-					Settings.getSetting(name + "Url"),
-			        Settings.getSetting(name + "User"),
-			        Settings.getSetting(name + "Password"));
+			Properties props = new Properties();
+			props.setProperty("user", Settings.getSetting(name + "User"));
+			props.setProperty("password", Settings.getSetting(name + "Password"));
+			props.setProperty("useServerPrepStmts", "true");
+			props.setProperty("cachePrepStmts", "true");
+			props.setProperty("useCursorFetch", "true");
+			props.setProperty("rewriteBatchedStatements", "true");
+			
+			pool = new ConnectionPool(name, 5, MAX_CONNECTIONS, 30, 180,
+					Settings.getSetting(name + "Url"), props);
+			pool.setCaching(false, true, false);
+			Metrics.register("type=DBPool,name=" + name, new PoolMetrics(pool));
 			
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -59,10 +253,7 @@ public class DB {
 	 * @return You can return any Object from the block.
 	 */
 	public static <T> T getMasterDB(Function<DB, T> block){
-		if (masterDB == null)
-			masterDB = new DB("masterDb");
-			
-		return block.apply(masterDB);
+		return block.apply(master());
 	}
 	
 	/**
@@ -70,12 +261,215 @@ public class DB {
 	 * @param block Executes the given block against the master DB.
 	 */
 	public static void getMasterDB(Consumer<DB> block) {
-		if (masterDB == null)
-			masterDB = new DB("masterDb");
-			
-		block.accept(masterDB);
+		block.accept(master());
+	}
+	
+	/**
+	 * Accesses a read replica. Use it for reads which may lag behind the writes. The master DB is used instead
+	 * if no replica is configured, the thread has an open {@link Session} or reads its own writes, see
+	 * {@link #setReadYourWrites(boolean)}.
+	 * @param block Executes the given block against the DB. It mustn't write.
+	 * @return You can return any Object from the block.
+	 */
+	public static <T> T getReadDB(Function<DB, T> block) {
+		return block.apply(reader());
+	}
+	
+	/**
+	 * Accesses a read replica without a return from block, see {@link #getReadDB(Function)}.
+	 * @param block Executes the given block against the DB. It mustn't write.
+	 */
+	public static void runOnReadDB(Consumer<DB> block) {
+		block.accept(reader());
+	}
+	
+	/**
+	 * Routes the reads of the current thread to the master DB, so they see the rows the thread just wrote.
+	 * @param enabled False to read from the replicas again.
+	 */
+	public static void setReadYourWrites(boolean enabled) {
+		if (enabled)
+			readYourWrites.set(Boolean.TRUE);
+		else
+			readYourWrites.remove();
+	}
+	
+	public static boolean isReadYourWrites() {
+		return readYourWrites.get() != null;
+	}
+	
+	private static DB reader() {
+		DB master = master();
+		List<DB> replicas = replicas();
+		if (replicas.isEmpty() || isReadYourWrites() || master.session.get() != null)
+			return master;
+		
+		if ("leastload".equalsIgnoreCase(Settings.getSetting("ReplicaRouting", "roundrobin"))) {
+			DB least = replicas.get(0);
+			for (DB replica : replicas)
+				if (replica.pool.getCheckedOut() < least.pool.getCheckedOut())
+					least = replica;
+			return least;
+		}
+		
+		return replicas.get(Math.floorMod(nextReplica.getAndIncrement(), replicas.size()));
+	}
+	
+	/**
+	 * Opens the replicas listed by ReplicaDbs on first use. A replica whose pool couldn't be created is left
+	 * out.
+	 */
+	private static List<DB> replicas() {
+		List<DB> dbs = replicaDBs;
+		if (dbs != null)
+			return dbs;
+		
+		synchronized (DB.class) {
+			if (replicaDBs == null) {
+				List<DB> replicas = new ArrayList<DB>();
+				for (String name : Settings.getSetting("ReplicaDbs", "").split(",")) {
+					if (name.trim().isEmpty())
+						continue;
+					
+					DB db = new DB(name.trim());
+					db.replica = true;
+					if (db.pool != null)
+						replicas.add(db);
+				}
+				replicaDBs = Collections.unmodifiableList(replicas);
+			}
+			return replicaDBs;
+		}
+	}
+	
+	/**
+	 * Accesses the master DB asynchronously, see {@link #async(Function)}.
+	 * @param block Executes the given block against the master DB.
+	 * @return Completes with the return of the block.
+	 */
+	public static <T> CompletableFuture<T> getMasterDBAsync(Function<DB, T> block) {
+		return master().async(block);
+	}
+	
+	/**
+	 * Accesses the master DB asynchronously without a return from block, see {@link #async(Function)}.
+	 * @param block Executes the given block against the master DB.
+	 * @return Completes when the block is done.
+	 */
+	public static CompletableFuture<Void> runOnMasterDBAsync(Consumer<DB> block) {
+		return master().async(db -> {
+			block.accept(db);
+			return null;
+		});
+	}
+	
+	/**
+	 * Runs the block on one of {@link #ASYNC_THREADS} DB I/O threads, so several independent blocks can be in
+	 * flight at once while the caller goes on. Each block gets a pooled connection per statement like on any
+	 * other thread. The caller's {@link Session} isn't used. If DbAsyncQueue blocks are waiting already, the
+	 * caller is blocked until one is taken. A block submitted by an I/O thread runs on that thread then.
+	 * @param block Executes the given block against this DB.
+	 * @return Completes with the return of the block or exceptionally if the block threw.
+	 */
+	public <T> CompletableFuture<T> async(Function<DB, T> block) {
+		return CompletableFuture.supplyAsync(() -> block.apply(this), io);
+	}
+	
+	/**
+	 * @return The amount of Jobs which can run at once without exhausting the connections of the master DB.
+	 */
+	public static int getJobCapacity() {
+		return Math.max(1, (MAX_CONNECTIONS - RESERVED_CONNECTIONS - ASYNC_THREADS) / CONNECTIONS_PER_JOB);
+	}
+	
+	/**
+	 * Opens the master DB on first use and applies the {@link Schema} migrations it is missing, unless
+	 * SchemaMigrate is false. Only the first use is synchronized.
+	 */
+	private static DB master() {
+		DB db = masterDB;
+		if (db != null)
+			return db;
+		
+		synchronized (DB.class) {
+			if (masterDB == null) {
+				db = new DB("masterDb");
+				if (Boolean.parseBoolean(Settings.getSetting("SchemaMigrate", "true")))
+					Schema.migrate(db);
+				masterDB = db;
+			}
+			return masterDB;
+		}
 	}
 
+	/**
+	 * @return True if this is a read replica, which may lag behind the master DB.
+	 */
+	public boolean isReplica() {
+		return replica;
+	}
+	
+	/**
+	 * @return True if the current thread has an open {@link Session} of this DB.
+	 */
+	public boolean inSession() {
+		return session.get() != null;
+	}
+	
+	/**
+	 * Opens a {@link Session} for the current thread.
+	 * @param maxRows The amount of rows after which the session is due to commit.
+	 * @param maxMillis The time after which the session is due to commit.
+	 * @return Null if the thread has an open session already or no connection could be get.
+	 */
+	public Session openSession(int maxRows, long maxMillis) {
+		if (session.get() != null)
+			return null;
+		
+		try {
+			Connection con = connect();
+			con.setAutoCommit(false);
+			Session opened = new Session(con, maxRows, maxMillis);
+			session.set(opened);
+			return opened;
+		}
+		catch (SQLException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 * @return The connection of the current thread's {@link Session} or a pooled one.
+	 */
+	private Connection acquire() throws SQLException {
+		Session current = session.get();
+		return current != null ? current.con : connect();
+	}
+	
+	/**
+	 * Gets a pooled connection, waiting up to DbConnectMillis while all are in use.
+	 * @throws SQLException If no connection is available in time.
+	 */
+	private Connection connect() throws SQLException {
+		if (pool == null)
+			throw new SQLException("The connection pool isn't configured.");
+		
+		Connection con = pool.getConnection(connectMillis);
+		if (con == null)
+			throw new SQLException(String.format("No connection available within %d ms.", connectMillis));
+		return con;
+	}
+	
+	/**
+	 * Returns a connection got by {@link #acquire()} to the pool, unless it belongs to a {@link Session}.
+	 */
+	private void release(Connection con) throws SQLException {
+		Session current = session.get();
+		if (con != null && (current == null || current.con != con))
+			con.close();
+	}
+	
 	/**
 	 * Inserts a new entry to the DB.
 	 * @param table Specifies the targeted table.
@@ -84,20 +478,18 @@ public class DB {
 	 */
 	public int insert(String table, Map<String, Object> data) {		
 		Connection con = null;
-		Statement stmnt = null;
+		PreparedStatement stmnt = null;
 		ResultSet res = null;
 		int dbId = -1;
 		
-		String sqlString = String.format("Insert into %s (%s) ", table,
-				data.keySet().stream().map(e -> e).collect(Collectors.joining(",")));
-		sqlString += String.format("Values(%s);", 
-				data.values().stream().map(v -> v instanceof String ? String.format("'%s'", v) : v.toString())
-					.collect(Collectors.joining(",")));
+		String sqlString = String.format("Insert into %s (%s) Values(%s)", table,
+				String.join(",", data.keySet()), placeholders(data.size()));
 		try {
-			con = pool.getConnection();
-			stmnt = con.createStatement(Statement.RETURN_GENERATED_KEYS, ResultSet.CONCUR_READ_ONLY );
+			con = acquire();
+			stmnt = con.prepareStatement(sqlString, Statement.RETURN_GENERATED_KEYS);
+			bind(stmnt, 1, data.values().toArray());
 			
-			stmnt.executeUpdate(sqlString, new String[] { "dbId" });
+			stmnt.executeUpdate();
 			res= stmnt.getGeneratedKeys();
 			res.next();
 			dbId = res.getInt(1);
@@ -109,7 +501,7 @@ public class DB {
 			try {
 				if (res != null) res.close();
 				if (stmnt != null) stmnt.close();
-				if (con != null) con.close();
+				release(con);
 			}
 			catch (SQLException e) {e.toString(); }
 		}
@@ -117,75 +509,273 @@ public class DB {
 		return dbId;
 	}
 	
+	/**
+	 * Inserts several entries to the same table within one transaction. The entries are sent as multi-row
+	 * inserts of at most {@link #BATCH_SIZE} entries, so a whole import costs a few round trips and a single
+	 * commit instead of one each per entry. Every entry has to provide the same columns. Within a
+	 * {@link Session} the entries become part of its transaction, a failure makes the session roll back.
+	 * @param table Specifies the targeted table.
+	 * @param data A list of maps of data to get inserted.
+	 * @return Returns the indexes of the new entries in the order of data. If the transaction failed every
+	 * index is -1.
+	 */
+	public int[] insertBatch(String table, List<Map<String, Object>> data) {
+		int[] dbIds = new int[data.size()];
+		Arrays.fill(dbIds, -1);
+		
+		boolean written = writeBatch(table, data, "", (stmnt, from, to, count) -> {
+			try (ResultSet res = stmnt.getGeneratedKeys()) {
+				for (int i = from; i < to && res.next(); i++)
+					dbIds[i] = res.getInt(1);
+			}
+		});
+		
+		if (!written)
+			Arrays.fill(dbIds, -1);
+		return dbIds;
+	}
+	
+	/**
+	 * Inserts several entries like {@link #insertBatch(String, List)}, but an entry which collides with an
+	 * existing row on a unique key updates the given columns of that row instead. Without update columns
+	 * the existing row is kept as it is, so the entry is only inserted if it is absent. The dbIds aren't
+	 * returned, since MySQL doesn't report them for the updated rows.
+	 * @param table Specifies the targeted table.
+	 * @param data A list of maps of data to get inserted.
+	 * @param updateColumns The columns to update on a collision.
+	 * @return The amount of rows effected as reported by MySQL, 1 per inserted and 2 per changed row. -1 if
+	 * the transaction failed.
+	 */
+	public int upsertBatch(String table, List<Map<String, Object>> data, String... updateColumns) {
+		if (data.isEmpty())
+			return 0;
+		
+		String first = data.get(0).keySet().iterator().next();
+		String update = updateColumns.length == 0 ? first + " = " + first
+				: Arrays.stream(updateColumns).map(column -> column + " = VALUES(" + column + ")")
+						.collect(Collectors.joining(", "));
+		int[] effected = { 0 };
+		
+		boolean written = writeBatch(table, data, " On Duplicate Key Update " + update,
+				(stmnt, from, to, count) -> effected[0] += count);
+		
+		return written ? effected[0] : -1;
+	}
+	
+	@FunctionalInterface
+	private interface BatchHandler {
+		void written(PreparedStatement stmnt, int from, int to, int count) throws SQLException;
+	}
+	
+	/**
+	 * Sends the entries as multi-row inserts of at most {@link #BATCH_SIZE} entries within one transaction.
+	 * @param tail Gets appended to every statement.
+	 * @param handler Gets called after each statement with the range of entries it inserted.
+	 * @return False if the transaction failed.
+	 */
+	private boolean writeBatch(String table, List<Map<String, Object>> data, String tail, BatchHandler handler) {
+		if (data.isEmpty())
+			return true;
+		
+		Connection con = null;
+		PreparedStatement stmnt = null;
+		List<String> columns = new ArrayList<String>(data.get(0).keySet());
+		String sqlHead = String.format("Insert into %s (%s) Values", table, String.join(",", columns));
+		String row = "(" + placeholders(columns.size()) + ")";
+		Session current = session.get();
+		boolean written = false;
+		
+		try {
+			con = acquire();
+			if (current == null)
+				con.setAutoCommit(false);
+			
+			for (int from = 0; from < data.size(); from += BATCH_SIZE) {
+				int to = Math.min(from + BATCH_SIZE, data.size());
+				Object[] params = new Object[(to - from) * columns.size()];
+				int p = 0;
+				
+				for (int i = from; i < to; i++) {
+					Map<String, Object> entry = data.get(i);
+					if (entry.size() != columns.size() || !entry.keySet().containsAll(columns))
+						throw new IllegalArgumentException(
+								"insertBatch() failed. All entries have to provide the same columns.");
+					
+					for (String column : columns)
+						params[p++] = entry.get(column);
+				}
+				
+				stmnt = con.prepareStatement(sqlHead + String.join(",", Collections.nCopies(to - from, row))
+						+ tail, Statement.RETURN_GENERATED_KEYS);
+				bind(stmnt, 1, params);
+				int count = stmnt.executeUpdate();
+				handler.written(stmnt, from, to, count);
+				stmnt.close();
+				stmnt = null;
+			}
+			
+			if (current == null)
+				con.commit();
+			written = true;
+		}
+		catch (SQLException | IllegalArgumentException e) {
+			try {
+				if (current != null)
+					current.failed = true;
+				else if (con != null)
+					con.rollback();
+			}
+			catch (SQLException ex) { ex.printStackTrace(); }
+			e.printStackTrace();
+		}
+		finally {
+			try {
+				if (stmnt != null) stmnt.close();
+				if (con != null && current == null) {
+					con.setAutoCommit(true);
+					con.close();
+				}
+			}
+			catch (SQLException e) {e.printStackTrace(); }
+		}
+		
+		return written;
+	}
+	
 	/**
 	 * Updates an DB entry or entries.
 	 * @param table Specifies the targeted table.
-	 * @param where The condition for updating entries.
+	 * @param where The condition for updating entries. May contain '?' placeholders.
 	 * @param data The new data which should be updated.
+	 * @param params The values for the placeholders of where.
 	 * @return The amount of rows effected.
 	 */
-	public int update(String table, String where, Map<String, Object> data) {
+	public int update(String table, String where, Map<String, Object> data, Object... params) {
 		if (data.isEmpty())
 			return -1;
 		
-		Connection con = null;
-		Statement stmnt = null;
-		int rowsEffected = 0;
+		String set = data.keySet().stream().map(column -> column + " = ?")
+				.collect(Collectors.joining(", ", "Set ", ""));
+		List<Object> values = new ArrayList<Object>(data.values());
+		values.addAll(Arrays.asList(params));
 		
-		String set = "Set ";
-		for (Map.Entry<String, Object> entry : data.entrySet()) {
-			set += String.format("%s = %s, ", entry.getKey(), entry.getValue() instanceof String ?
-					String.format("'%s'", entry.getValue()) : entry.getValue());
-		}
-		set = set.substring(0, set.lastIndexOf(", "));
+		return execute(String.format("Update %s %s Where %s", table, set, where), values.toArray());
+	}
+	
+	/**
+	 * Updates several entries of the same table within one transaction. The statements are sent as JDBC
+	 * batches of at most {@link #BATCH_SIZE} entries, which the driver rewrites into few round trips. Every
+	 * entry has to provide the same columns. Within a {@link Session} the entries become part of its
+	 * transaction, a failure makes the session roll back.
+	 * @param table Specifies the targeted table.
+	 * @param keyColumn The column identifying an entry, e.g. dbId.
+	 * @param data A list of maps of data to get updated.
+	 * @param keys The values of keyColumn in the order of data.
+	 * @return The amount of rows effected or -1 if the transaction failed.
+	 */
+	public int updateBatch(String table, String keyColumn, List<Map<String, Object>> data, List<?> keys) {
+		if (data.isEmpty())
+			return 0;
+		
+		Connection con = null;
+		PreparedStatement stmnt = null;
+		List<String> columns = new ArrayList<String>(data.get(0).keySet());
+		String sql = String.format("Update %s Set %s Where %s = ?", table, columns.stream()
+				.map(column -> column + " = ?").collect(Collectors.joining(", ")), keyColumn);
+		Session current = session.get();
+		int effected = 0;
 		
-		String sqlString = String.format("Update %s %s Where %s", table, set, where);
 		try {
-			con = pool.getConnection();
-			stmnt = con.createStatement();
-			rowsEffected = stmnt.executeUpdate(sqlString);
+			con = acquire();
+			if (current == null)
+				con.setAutoCommit(false);
+			stmnt = con.prepareStatement(sql);
+			
+			for (int from = 0; from < data.size(); from += BATCH_SIZE) {
+				int to = Math.min(from + BATCH_SIZE, data.size());
+				
+				for (int i = from; i < to; i++) {
+					Map<String, Object> entry = data.get(i);
+					if (entry.size() != columns.size() || !entry.keySet().containsAll(columns))
+						throw new IllegalArgumentException(
+								"updateBatch() failed. All entries have to provide the same columns.");
+					
+					int index = 1;
+					for (String column : columns)
+						index = bind(stmnt, index, entry.get(column));
+					bind(stmnt, index, keys.get(i));
+					stmnt.addBatch();
+				}
+				
+				for (int count : stmnt.executeBatch())
+					effected += Math.max(count, 0);
+			}
+			
+			if (current == null)
+				con.commit();
 		}
-		catch (SQLException e) {
-			rowsEffected = -1;
-			System.out.println(e.toString());
+		catch (SQLException | IllegalArgumentException e) {
+			effected = -1;
+			try {
+				if (current != null)
+					current.failed = true;
+				else if (con != null)
+					con.rollback();
+			}
+			catch (SQLException ex) { ex.printStackTrace(); }
+			e.printStackTrace();
 		}
 		finally {
 			try {
 				if (stmnt != null) stmnt.close();
-				if (con != null) con.close();
+				if (con != null && current == null) {
+					con.setAutoCommit(true);
+					con.close();
+				}
 			}
 			catch (SQLException e) {e.printStackTrace(); }
-		}		
+		}
 		
-		return rowsEffected;
+		return effected;
 	}
 	
 	/**
 	 * Deletes an entry or entries from DB.
 	 * @param table Specifies the targeted table.
-	 * @param where The condition for deleting entries.
+	 * @param where The condition for deleting entries. May contain '?' placeholders.
+	 * @param params The values for the placeholders of where.
 	 * @return The amount of rows effected.
 	 */
-	public int delete(String table, String where) 
+	public int delete(String table, String where, Object... params) 
 	{	
+		return execute(String.format("Delete From %s Where %s", table, where), params);
+	}
+	
+	/**
+	 * Executes an insert, update or delete statement.
+	 * @param sql The statement. Use '?' as placeholder for values.
+	 * @param params The values for the placeholders.
+	 * @return The amount of rows effected or -1 if the statement failed.
+	 */
+	public int execute(String sql, Object... params) {
 		Connection con = null;
-		Statement stmnt = null;
+		PreparedStatement stmnt = null;
 		int rowsEffected = 0;
 		
-		String sqlString = String.format("Delete From %s Where %s", table, where);
 		try {
-			con = pool.getConnection();
-			stmnt = con.createStatement();
-			rowsEffected = stmnt.executeUpdate(sqlString);
+			con = acquire();
+			stmnt = con.prepareStatement(sql);
+			bind(stmnt, 1, params);
+			rowsEffected = stmnt.executeUpdate();
 		}
 		catch (SQLException e) {
 			rowsEffected = -1;
-			e.printStackTrace();
+			System.out.println(e.toString());
 		}
 		finally {
 			try {
 				if (stmnt != null) stmnt.close();
-				if (con != null) con.close();
+				release(con);
 			}
 			catch (SQLException e) {e.printStackTrace(); }
 		}		
@@ -197,50 +787,198 @@ public class DB {
 	 * Selects entries from DB.
 	 * @param table Specifies the targeted table.
 	 * @param selector Selects the given columns.
-	 * @param tail Gets appended to the transaction.
+	 * @param tail Gets appended to the transaction. May contain '?' placeholders.
+	 * @param params The values for the placeholders of tail.
 	 * @return A {@link List} of entries. The map- keys are the column names.
 	 */
-	public List<Map<String, Object>> select(String table, String selector, String tail) {		
+	public List<Map<String, Object>> select(String table, String selector, String tail, Object... params) {		
+		return query(String.format("Select %s From %s %s", selector, table, tail), params);
+	}
+	
+	/**
+	 * Runs a query against the DB.
+	 * @param sql The query. Use '?' as placeholder for values.
+	 * @param params The values for the placeholders.
+	 * @return A {@link List} of entries. The map- keys are the column names.
+	 */
+	public List<Map<String, Object>> query(String sql, Object... params) {
 		Connection con = null;
-		Statement stmnt = null;
+		PreparedStatement stmnt = null;
 		ResultSet res = null;
 		List<Map<String, Object>> list = new ArrayList<Map<String,Object>>();
 		
-		String sqlString = String.format("Select %s From %s %s", selector, table, tail);
 		try {
-			con = pool.getConnection();
-			stmnt = con.createStatement();
-			res = stmnt.executeQuery(sqlString);
+			con = acquire();
+			stmnt = con.prepareStatement(sql);
+			bind(stmnt, 1, params);
+			res = stmnt.executeQuery();
 			
-			ResultSetMetaData meta = res.getMetaData();
-			
-			int count = meta.getColumnCount();
+			RowMapper<Map<String, Object>> mapper = mapColumns();
 			
 			while (res.next()) {
-				Map<String, Object> entry = new HashMap<String, Object>();
-				
-				for (int i = 1; i <= count; i++) {
-					String column = meta.getColumnName(i);
-					Object value = res.getObject(i);
-					
-					entry.put(column, value);
-				}
-				list.add(entry);
+				list.add(mapper.map(res));
 			}
 		}
 		catch (SQLException e) {
-			System.out.println(sqlString);
+			System.out.println(sql);
 			e.printStackTrace();
 		}
 		finally {
 			try {
 				if (res != null) res.close();
 				if (stmnt != null) stmnt.close();
-				if (con != null) con.close();
+				release(con);
 			}
 			catch (SQLException e) {e.printStackTrace(); }
 		}
 		
 		return list;
 	}
+	
+	/**
+	 * Runs a query against the DB and streams its rows. The rows are fetched in portions of
+	 * {@link #FETCH_SIZE} by a server side cursor, so the memory use doesn't depend on the size of the result.
+	 * The stream holds a pooled connection, make sure to close it. E.g. use a try-with-resources block. It is
+	 * never the connection of a {@link Session}, so the session can be used while the stream is open.
+	 * @param sql The query. Use '?' as placeholder for values.
+	 * @param mapper Maps each row, e.g. {@link #mapColumns()}.
+	 * @param params The values for the placeholders.
+	 * @return An empty stream if the query failed.
+	 */
+	public <T> Stream<T> stream(String sql, RowMapper<T> mapper, Object... params) {
+		Connection con = null;
+		PreparedStatement stmnt = null;
+		ResultSet res = null;
+		
+		try {
+			con = connect();
+			stmnt = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			stmnt.setFetchSize(FETCH_SIZE);
+			bind(stmnt, 1, params);
+			res = stmnt.executeQuery();
+		}
+		catch (SQLException e) {
+			System.out.println(sql);
+			e.printStackTrace();
+			close(res, stmnt, con);
+			return Stream.empty();
+		}
+		
+		ResultSet rows = res;
+		Spliterator<T> cursor = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED) {
+			@Override
+			public boolean tryAdvance(Consumer<? super T> action) {
+				try {
+					if (!rows.next())
+						return false;
+					
+					action.accept(mapper.map(rows));
+					return true;
+				}
+				catch (SQLException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+		
+		Statement statement = stmnt;
+		Connection connection = con;
+		return StreamSupport.stream(cursor, false).onClose(() -> close(rows, statement, connection));
+	}
+	
+	/**
+	 * Runs a query against the DB and passes each row to the handler, see 
+	 * {@link #stream(String, RowMapper, Object...)}.
+	 * @param sql The query. Use '?' as placeholder for values.
+	 * @param mapper Maps each row.
+	 * @param handler Gets called for each mapped row.
+	 * @param params The values for the placeholders.
+	 * @return The amount of handled rows.
+	 */
+	public <T> long forEach(String sql, RowMapper<T> mapper, Consumer<? super T> handler, Object... params) {
+		long count = 0;
+		
+		try (Stream<T> rows = stream(sql, mapper, params)) {
+			Iterator<T> it = rows.iterator();
+			while (it.hasNext()) {
+				handler.accept(it.next());
+				count++;
+			}
+		}
+		catch (IllegalStateException e) {
+			System.out.println(sql);
+			e.printStackTrace();
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * @return A {@link RowMapper} which maps a row to a map with the column names as keys. The column names are
+	 * resolved once, by the first row.
+	 */
+	public static RowMapper<Map<String, Object>> mapColumns() {
+		return new RowMapper<Map<String, Object>>() {
+			private String[] columns = null;
+			
+			@Override
+			public Map<String, Object> map(ResultSet row) throws SQLException {
+				if (columns == null) {
+					ResultSetMetaData meta = row.getMetaData();
+					columns = new String[meta.getColumnCount()];
+					for (int i = 0; i < columns.length; i++)
+						columns[i] = meta.getColumnName(i + 1);
+				}
+				
+				Map<String, Object> entry = new HashMap<String, Object>();
+				for (int i = 0; i < columns.length; i++)
+					entry.put(columns[i], row.getObject(i + 1));
+				
+				return entry;
+			}
+		};
+	}
+	
+	private static void close(ResultSet res, Statement stmnt, Connection con) {
+		try {
+			if (res != null) res.close();
+			if (stmnt != null) stmnt.close();
+			if (con != null) con.close();
+		}
+		catch (SQLException e) {e.printStackTrace(); }
+	}
+	
+	/**
+	 * Binds the params to the placeholders of the statement, starting at the given index.
+	 * @return The index behind the last bound param.
+	 */
+	private static int bind(PreparedStatement stmnt, int index, Object... params) throws SQLException {
+		for (Object param : params) {
+			if (param == null)
+				stmnt.setNull(index, Types.NULL);
+			else if (param instanceof String)
+				stmnt.setString(index, (String) param);
+			else if (param instanceof Integer)
+				stmnt.setInt(index, (Integer) param);
+			else if (param instanceof Long)
+				stmnt.setLong(index, (Long) param);
+			else if (param instanceof Double)
+				stmnt.setDouble(index, (Double) param);
+			else if (param instanceof Boolean)
+				stmnt.setBoolean(index, (Boolean) param);
+			else if (param instanceof java.util.Date)
+				stmnt.setTimestamp(index, new Timestamp(((java.util.Date) param).getTime()));
+			else
+				stmnt.setObject(index, param);
+			index++;
+		}
+		return index;
+	}
+	
+	/**
+	 * @return The given amount of comma separated '?'.
+	 */
+	private static String placeholders(int count) {
+		return String.join(",", Collections.nCopies(count, "?"));
+	}
 }
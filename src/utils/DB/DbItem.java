@@ -1,8 +1,10 @@
 package utils.DB;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 
 /**
  * Extend this class if you create an new Object, which can be written to DB. It provides functionality to
@@ -14,6 +16,7 @@ public abstract class DbItem implements ICommitable {
 	protected int dbId = -1;
 	private String table = null;
 	private Map<String, Object> uncommitedChanges = null;
+	UnitOfWork unitOfWork = null;
 
 	protected Map<String, Object> getUncommitedChanges() {
 		return uncommitedChanges;
@@ -43,18 +46,123 @@ public abstract class DbItem implements ICommitable {
 	}
 	
 	/**
-	 * Writes changes to the DB.
+	 * Writes changes to the DB. Within a {@link UnitOfWork} the item is only registered, the changes are
+	 * written by {@link UnitOfWork#flush()}.
 	 */
 	public void commitChanges() {
+		UnitOfWork work = UnitOfWork.current();
+		if (work != null) {
+			work.register(this);
+			return;
+		}
+		
 		if (hasUncommitedChanges())
 			DB.getMasterDB(db -> {
 				if (dbId == -1)
 					dbId = db.insert(table, uncommitedChanges);
 				else
-					db.update(table, "dbId = " + dbId, uncommitedChanges);
+					db.update(table, "dbId = ?", uncommitedChanges, dbId);
+			});
+		
+		if (dbId != -1) {
+			uncommitedChanges.clear();
+			onCommitted();
+		}
+	}
+	
+	/**
+	 * Gets called after the changes were written to the DB. Override it to keep caches consistent.
+	 */
+	protected void onCommitted() {
+	}
+	
+	/**
+	 * Writes the changes of several items to the DB. New items of the same table are inserted together by
+	 * {@link DB#insertBatch(String, List)}, already existing items are updated one by one.
+	 * @param items
+	 * @return The new items which couldn't be inserted, they keep their changes. Empty if all were written.
+	 */
+	public static <T extends DbItem> List<T> commitChanges(List<T> items) {
+		Map<String, List<T>> inserts = new HashMap<String, List<T>>();
+		List<T> failed = new ArrayList<T>();
+		
+		for (T item : items) {
+			if (!item.hasUncommitedChanges())
+				continue;
+			
+			if (item.dbId == -1) {
+				String key = item.getTable() + new TreeSet<String>(item.getUncommitedChanges().keySet());
+				inserts.computeIfAbsent(key, k -> new ArrayList<T>()).add(item);
+			}
+			else
+				item.commitChanges();
+		}
+		
+		for (List<T> batch : inserts.values()) {
+			List<Map<String, Object>> data = new ArrayList<Map<String, Object>>(batch.size());
+			batch.forEach(item -> data.add(item.getUncommitedChanges()));
+			
+			int[] dbIds = DB.getMasterDB(db -> {
+				return db.insertBatch(batch.get(0).getTable(), data);
 			});
+			
+			for (int i = 0; i < dbIds.length; i++) {
+				T item = batch.get(i);
+				item.dbId = dbIds[i];
+				if (item.dbId != -1) {
+					item.getUncommitedChanges().clear();
+					item.onCommitted();
+				}
+				else
+					failed.add(item);
+			}
+		}
 		
-		if (dbId != -1)
-			uncommitedChanges.clear();		
-	}	
+		return failed;
+	}
+	
+	/**
+	 * Gets called after the item was written by {@link #insertIfAbsent(List)}. The item has no dbId then, it
+	 * may be the existing row. Override it to keep caches consistent.
+	 */
+	protected void onUpserted() {
+	}
+	
+	/**
+	 * Inserts new items unless an equal row exists already, as decided by the unique keys of the table. So
+	 * the existence doesn't have to be checked item by item. Items of the same table are written together by
+	 * {@link DB#upsertBatch(String, List, String...)}, items which exist in the DB already are skipped.
+	 * @param items
+	 * @return The amount of rows inserted or -1 if a batch failed.
+	 */
+	public static int insertIfAbsent(List<? extends DbItem> items) {
+		Map<String, List<DbItem>> inserts = new HashMap<String, List<DbItem>>();
+		
+		for (DbItem item : items) {
+			if (item.dbId == -1 && item.hasUncommitedChanges()) {
+				String key = item.table + new TreeSet<String>(item.uncommitedChanges.keySet());
+				inserts.computeIfAbsent(key, k -> new ArrayList<DbItem>()).add(item);
+			}
+		}
+		
+		int inserted = 0;
+		for (List<DbItem> batch : inserts.values()) {
+			List<Map<String, Object>> data = new ArrayList<Map<String, Object>>(batch.size());
+			batch.forEach(item -> data.add(item.uncommitedChanges));
+			
+			int rows = DB.getMasterDB(db -> {
+				return db.upsertBatch(batch.get(0).table, data);
+			});
+			if (rows == -1)
+				return -1;
+			
+			inserted += rows;
+			for (DbItem item : batch) {
+				item.uncommitedChanges.clear();
+				item.onUpserted();
+			}
+		}
+		
+		return inserted;
+	}
 }
\ No newline at end of file
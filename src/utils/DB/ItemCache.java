@@ -0,0 +1,91 @@
+package utils.DB;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A bounded in-process cache for items loaded from DB. If the cache is full, the least recently used entry is
+ * evicted. Every entry expires after the configured time to live, so changes made by other processes show up
+ * eventually. All methods are synchronized, a cache can be shared by all {@link utils.Job}s of a JVM.
+ * @author Christian Chartron
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+public class ItemCache<K, V> {
+	private final int maxSize;
+	private final long ttlMillis;
+	private final LinkedHashMap<K, Item<V>> entries;
+
+	private static class Item<V> {
+		private final V value;
+		private final long expires;
+
+		private Item(V value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * @param maxSize The maximum amount of entries.
+	 * @param ttlMillis The time to live of an entry.
+	 */
+	public ItemCache(int maxSize, long ttlMillis) {
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		entries = new LinkedHashMap<K, Item<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Item<V>> eldest) {
+				return size() > ItemCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @param key
+	 * @return Null if the key isn't cached or the entry is expired.
+	 */
+	public synchronized V get(K key) {
+		Item<V> entry = entries.get(key);
+		if (entry == null)
+			return null;
+
+		if (entry.expires < System.currentTimeMillis()) {
+			entries.remove(key);
+			return null;
+		}
+		return entry.value;
+	}
+
+	public synchronized void put(K key, V value) {
+		if (maxSize > 0)
+			entries.put(key, new Item<V>(value, System.currentTimeMillis() + ttlMillis));
+	}
+
+	public synchronized void invalidate(K key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * Removes all entries whose value matches the condition.
+	 */
+	public synchronized void invalidateIf(Predicate<V> condition) {
+		for (Iterator<Item<V>> it = entries.values().iterator(); it.hasNext();) {
+			if (condition.test(it.next().value))
+				it.remove();
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+}
@@ -0,0 +1,250 @@
+package utils.DB;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Versioned migrations of the master DB schema. Every {@link Migration} is applied once, the applied versions
+ * are recorded in the schema_version table. {@link #migrate(DB)} runs when the master DB is opened first,
+ * unless SchemaMigrate is set to false in settings.config, so a new instance brings its tables and indexes up
+ * to date by itself. Several instances starting at once are serialized by a named lock of MySQL.
+ *
+ * Add a migration to the end of {@link #MIGRATIONS} to change the schema, never change an applied one.
+ * @author Christian Chartron
+ *
+ */
+public final class Schema {
+
+	private static final String LOCK = "schema_migrate";
+	private static final int LOCK_SECONDS = 30;
+
+	/**
+	 * One statement or check of a migration.
+	 */
+	@FunctionalInterface
+	interface Step {
+		/**
+		 * @return False if the step failed, the migration is stopped then.
+		 */
+		boolean apply(DB db);
+	}
+
+	static final class Migration {
+		final int version;
+		final String description;
+		final List<Step> steps;
+
+		Migration(int version, String description, Step... steps) {
+			this.version = version;
+			this.description = description;
+			this.steps = Arrays.asList(steps);
+		}
+	}
+
+	static final List<Migration> MIGRATIONS = Arrays.asList(
+			new Migration(1, "Baseline tables",
+					sql("Create Table if not exists accounts("
+							+ "dbId int NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+							+ "mail varchar(100) NOT NULL COLLATE utf8_bin, "
+							+ "name varchar(80) Binary NOT NULL UNIQUE, "
+							+ "password char(40) Binary NOT NULL)"),
+					sql("Create Table if not exists contacts("
+							+ "dbId int NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+							+ "accId int NOT NULL, "
+							+ "FOREIGN KEY fk_account(accId) REFERENCES accounts(dbId) "
+							+ "ON UPDATE CASCADE ON DELETE RESTRICT, "
+							+ "firstname varchar(100), "
+							+ "lastname varchar(100), "
+							+ "city varchar(100), "
+							+ "zipCode varchar(30))"),
+					sql("Create Table if not exists workerjobs("
+							+ "dbId int NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+							+ "remitter int NOT NULL, "
+							+ "FOREIGN KEY fk_account(remitter) REFERENCES accounts(dbId) "
+							+ "ON UPDATE CASCADE ON DELETE RESTRICT, "
+							+ "operation varchar(50) NOT NULL, "
+							+ "arguments varchar(2048) NOT NULL, "
+							+ "mail varchar(50) NOT NULL, "
+							+ "lockedUntil datetime NOT NULL default now(), "
+							+ "creationTime datetime NOT NULL default now(), "
+							+ "doneTime datetime(0), "
+							+ "claimToken char(36), "
+							+ "parentId int, "
+							+ "partitioned tinyint NOT NULL default 0, "
+							+ "INDEX idx_claimToken(claimToken), "
+							+ "INDEX idx_parentId(parentId))"),
+					sql("Create Table if not exists jobqueue("
+							+ "id int NOT NULL PRIMARY KEY, "
+							+ "version bigint NOT NULL default 0)"),
+					sql("Insert ignore into jobqueue(id, version) Values(1, 0)")),
+
+			// The claim query of Job and the existence check of ContactImporter are the hot paths. The unique
+			// key lets the importer insert by upsert instead of looking up every contact first. Duplicate
+			// contacts have to be resolved by hand before, the migration stops while there are any. A workerjobs
+			// table created by the baseline create_table.sql is missing the claim and partition columns of
+			// migration 1, they are added first.
+			new Migration(2, "Hot path indexes",
+					addColumn("workerjobs", "claimToken", "char(36)"),
+					addColumn("workerjobs", "parentId", "int"),
+					addColumn("workerjobs", "partitioned", "tinyint NOT NULL default 0"),
+					createIndex("workerjobs", "idx_claimToken", false, "claimToken"),
+					createIndex("workerjobs", "idx_parentId", false, "parentId"),
+					createIndex("workerjobs", "idx_pending", false, "doneTime", "partitioned", "lockedUntil"),
+					unique("contacts", "accId", "firstname", "lastname"),
+					createIndex("contacts", "uq_contact", true, "accId", "firstname", "lastname")),
+
+			new Migration(3, "Rejected import entries",
+					sql("Create Table if not exists workerjobrejects("
+							+ "dbId int NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+							+ "jobId int NOT NULL, "
+							+ "lineNo bigint, "
+							+ "byteOffset bigint NOT NULL, "
+							+ "reason varchar(1024) NOT NULL, "
+							+ "entry text NOT NULL, "
+							+ "INDEX idx_jobId(jobId))")),
+
+			// Fair scheduling, see utils.Job#claimPending(int).
+			new Migration(4, "Job priority and remitter shares",
+					addColumn("workerjobs", "priority", "int NOT NULL default 0"),
+					addColumn("workerjobs", "remainingWork", "bigint"),
+					sql("Create Table if not exists remittershares("
+							+ "remitter int NOT NULL PRIMARY KEY, "
+							+ "weight int NOT NULL default 1, "
+							+ "virtualTime bigint NOT NULL default 0)")));
+
+	private Schema() {
+	}
+
+	/**
+	 * Applies all migrations the DB is missing, in the order of their versions.
+	 * @return False if a migration failed or the lock couldn't be get.
+	 */
+	public static boolean migrate(DB db) {
+		try (DB.Session session = db.openSession(1, 0)) {
+			if (session == null)
+				return false;
+
+			if (!lock(db)) {
+				System.out.println("Schema migration skipped: lock " + LOCK + " not available.");
+				return false;
+			}
+
+			try {
+				return migrateLocked(db, session);
+			}
+			finally {
+				db.query("Select RELEASE_LOCK(?) As released", LOCK);
+			}
+		}
+	}
+
+	private static boolean migrateLocked(DB db, DB.Session session) {
+		if (db.execute("Create Table if not exists schema_version("
+				+ "version int NOT NULL PRIMARY KEY, "
+				+ "description varchar(100) NOT NULL, "
+				+ "appliedTime datetime NOT NULL default now())") == -1)
+			return false;
+
+		Set<Integer> applied = new HashSet<Integer>();
+		for (Map<String, Object> row : db.query("Select version From schema_version"))
+			applied.add(((Number) row.get("version")).intValue());
+
+		for (Migration migration : MIGRATIONS) {
+			if (applied.contains(migration.version))
+				continue;
+
+			for (Step step : migration.steps) {
+				if (!step.apply(db)) {
+					session.rollback();
+					System.out.println(String.format("Schema migration %d '%s' failed.", migration.version,
+							migration.description));
+					return false;
+				}
+			}
+
+			db.execute("Insert into schema_version(version, description) Values(?, ?)", migration.version,
+					migration.description);
+			if (!session.commit())
+				return false;
+			System.out.println(String.format("Schema migration %d '%s' applied.", migration.version,
+					migration.description));
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return True if the table has an index of that name, created by its migration or by hand.
+	 */
+	public static boolean hasIndex(DB db, String table, String name) {
+		return !db.query("Select 1 From information_schema.statistics "
+				+ "Where table_schema = database() And table_name = ? And index_name = ?", table, name).isEmpty();
+	}
+
+	private static boolean lock(DB db) {
+		List<Map<String, Object>> res = db.query("Select GET_LOCK(?, ?) As locked", LOCK, LOCK_SECONDS);
+		if (res.isEmpty())
+			return false;
+
+		Object locked = res.get(0).get("locked");
+		return locked instanceof Number && ((Number) locked).intValue() == 1;
+	}
+
+	static Step sql(String sql) {
+		return db -> db.execute(sql) != -1;
+	}
+
+	/**
+	 * Adds a column unless the table already has it, e.g. because it was created by create_table.sql.
+	 */
+	static Step addColumn(String table, String column, String definition) {
+		return db -> {
+			List<Map<String, Object>> res = db.query("Select 1 From information_schema.columns "
+					+ "Where table_schema = database() And table_name = ? And column_name = ?", table, column);
+			if (!res.isEmpty())
+				return true;
+
+			return db.execute(String.format("Alter Table %s Add Column %s %s", table, column, definition)) != -1;
+		};
+	}
+
+	/**
+	 * Checks that no rows share the values of the given columns, so a unique index can be created on them. Rows
+	 * with a NULL in these columns don't count, like for the index. The duplicates are listed otherwise.
+	 */
+	static Step unique(String table, String... columns) {
+		return db -> {
+			String key = String.join(", ", columns);
+			String notNull = Arrays.stream(columns).map(column -> column + " is not NULL")
+					.collect(Collectors.joining(" And "));
+			List<Map<String, Object>> res = db.query(String.format("Select %s, Count(*) As copies From %s "
+					+ "Where %s Group By %s Having Count(*) > 1 Limit 100", key, table, notNull, key));
+			if (res.isEmpty())
+				return true;
+
+			System.out.println(String.format("Duplicate rows in %s, remove them before the migration:", table));
+			for (Map<String, Object> row : res)
+				System.out.println(Arrays.stream(columns).map(column -> column + "=" + row.get(column))
+						.collect(Collectors.joining(", ")) + " (" + row.get("copies") + " rows)");
+			return false;
+		};
+	}
+
+	/**
+	 * Creates an index unless the table already has one of that name, MySQL has no 'if not exists' for
+	 * indexes.
+	 */
+	static Step createIndex(String table, String name, boolean unique, String... columns) {
+		return db -> {
+			if (hasIndex(db, table, name))
+				return true;
+
+			return db.execute(String.format("Create %sIndex %s On %s(%s)", unique ? "Unique " : "", name, table,
+					Arrays.stream(columns).collect(Collectors.joining(", ")))) != -1;
+		};
+	}
+}
@@ -0,0 +1,204 @@
+package utils.DB;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Collects the changes of {@link DbItem}s and writes them together by {@link #flush()}. While a UnitOfWork is
+ * open on a thread, {@link DbItem#commitChanges()} only registers the item, so code changing thousands of items
+ * pays for a few flushes instead of a round trip and a commit per item. A flush groups the items by table and
+ * changed columns, inserts new items by {@link DB#insertBatch(String, List)} and updates the others by
+ * {@link DB#updateBatch(String, String, List, List)}, all within one transaction. Only the changed columns are
+ * written, several changes of a column are coalesced.
+ *
+ * The UnitOfWork keeps an identity map, so a row has one in-memory copy within it. Items loaded by
+ * {@link Account#load(int)} or {@link utils.Contact#load(Account, String, String)} join the current
+ * UnitOfWork, use {@link #join(DbItem)} for other items.
+ *
+ * <pre>
+ * try (UnitOfWork work = UnitOfWork.begin()) {
+ *     ... change and commit items ...
+ *     work.flush();
+ * }
+ * </pre>
+ * Changes not flushed stay with the items after {@link #close()}, they can be committed one by one then.
+ * @author Christian Chartron
+ *
+ */
+public class UnitOfWork implements AutoCloseable {
+	private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<UnitOfWork>();
+
+	private final Map<String, DbItem> identities = new HashMap<String, DbItem>();
+	private final Set<DbItem> dirty = new LinkedHashSet<DbItem>();
+
+	private UnitOfWork() {
+	}
+
+	/**
+	 * Opens a UnitOfWork for the current thread.
+	 * @return Null if the thread has an open UnitOfWork already.
+	 */
+	public static UnitOfWork begin() {
+		if (current.get() != null)
+			return null;
+
+		UnitOfWork work = new UnitOfWork();
+		current.set(work);
+		return work;
+	}
+
+	/**
+	 * @return The UnitOfWork of the current thread or null.
+	 */
+	public static UnitOfWork current() {
+		return current.get();
+	}
+
+	/**
+	 * Joins the item to the UnitOfWork of the current thread, if there is one.
+	 * @return The item or the copy of its row which joined before.
+	 */
+	public static <T extends DbItem> T joinCurrent(T item) {
+		UnitOfWork work = current.get();
+		return work != null && item != null ? work.join(item) : item;
+	}
+
+	/**
+	 * Joins an item. If another copy of the same row joined before, that copy is returned and should be used
+	 * instead of the item.
+	 * @return The copy of the item's row which belongs to this UnitOfWork.
+	 * @throws IllegalStateException If the item has changes and another copy of its row joined before. The
+	 * changes would be lost otherwise, make them on the returned copy instead.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends DbItem> T join(T item) {
+		if (item.unitOfWork == this)
+			return item;
+
+		if (item.dbId != -1) {
+			DbItem known = identities.putIfAbsent(identity(item), item);
+			if (known != null && known != item) {
+				if (item.hasUncommitedChanges())
+					throw new IllegalStateException(String.format("Another copy of %s joined the UnitOfWork "
+							+ "already, change that one.", identity(item)));
+				return (T) known;
+			}
+		}
+
+		item.unitOfWork = this;
+		if (item.hasUncommitedChanges())
+			dirty.add(item);
+		return item;
+	}
+
+	/**
+	 * Registers the changes of an item for the next flush, the item joins if it didn't yet.
+	 * @throws IllegalStateException See {@link #join(DbItem)}.
+	 */
+	void register(DbItem item) {
+		if (item.unitOfWork != this)
+			join(item);
+		if (item.hasUncommitedChanges())
+			dirty.add(item);
+	}
+
+	/**
+	 * @return The amount of items with changes to flush.
+	 */
+	public int getDirtyCount() {
+		return dirty.size();
+	}
+
+	/**
+	 * Writes the changes of all registered items in one transaction. If the thread has an open
+	 * {@link DB.Session}, the statements become part of it and are committed with it.
+	 * @return False if the transaction failed or no connection could be get. The changes are kept then.
+	 */
+	public boolean flush() {
+		if (dirty.isEmpty())
+			return true;
+
+		Map<String, List<DbItem>> inserts = new HashMap<String, List<DbItem>>();
+		Map<String, List<DbItem>> updates = new HashMap<String, List<DbItem>>();
+		for (DbItem item : dirty) {
+			String key = item.getTable() + new TreeSet<String>(item.getUncommitedChanges().keySet());
+			(item.dbId == -1 ? inserts : updates).computeIfAbsent(key, k -> new ArrayList<DbItem>()).add(item);
+		}
+
+		Map<DbItem, Integer> dbIds = new HashMap<DbItem, Integer>();
+		boolean written = DB.getMasterDB(db -> {
+			boolean joined = db.inSession();
+			DB.Session session = joined ? null : db.openSession(Integer.MAX_VALUE, Long.MAX_VALUE);
+			if (!joined && session == null)
+				return false;
+
+			try {
+				for (List<DbItem> batch : inserts.values()) {
+					int[] ids = db.insertBatch(batch.get(0).getTable(), changes(batch));
+					for (int i = 0; i < ids.length; i++) {
+						if (ids[i] == -1)
+							return false;
+						dbIds.put(batch.get(i), ids[i]);
+					}
+				}
+
+				for (List<DbItem> batch : updates.values()) {
+					List<Integer> keys = new ArrayList<Integer>(batch.size());
+					batch.forEach(item -> keys.add(item.dbId));
+					if (db.updateBatch(batch.get(0).getTable(), "dbId", changes(batch), keys) == -1)
+						return false;
+				}
+
+				return joined || session.commit();
+			}
+			finally {
+				if (session != null)
+					session.close();
+			}
+		});
+
+		if (!written)
+			return false;
+
+		for (DbItem item : dirty) {
+			Integer dbId = dbIds.get(item);
+			if (dbId != null) {
+				item.dbId = dbId;
+				identities.putIfAbsent(identity(item), item);
+			}
+			item.getUncommitedChanges().clear();
+			item.onCommitted();
+		}
+		dirty.clear();
+		return true;
+	}
+
+	/**
+	 * Unbinds the UnitOfWork from the thread. The items leave it, changes not flushed stay with them.
+	 */
+	@Override
+	public void close() {
+		current.remove();
+		for (DbItem item : identities.values())
+			item.unitOfWork = null;
+		for (DbItem item : dirty)
+			item.unitOfWork = null;
+		identities.clear();
+		dirty.clear();
+	}
+
+	private static List<Map<String, Object>> changes(List<DbItem> batch) {
+		List<Map<String, Object>> data = new ArrayList<Map<String, Object>>(batch.size());
+		batch.forEach(item -> data.add(item.getUncommitedChanges()));
+		return data;
+	}
+
+	private static String identity(DbItem item) {
+		return item.getTable() + ";" + item.dbId;
+	}
+}
@@ -0,0 +1,238 @@
+package utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import utils.DB.DB;
+
+/**
+ * Part of the example implementation. Collects the failed entries of a {@link CsvImport} and writes them in
+ * bulk, every FailSinkBatch entries and whenever the import commits its progress. FailSink selects where they
+ * are written: "file" appends them to a reject file in BaseDataPath/rejects, "table" inserts them into
+ * workerjobrejects linked to the {@link Job}, "both" does both. Jobs which aren't serialized always use the file.
+ *
+ * A reject file has the head of the source with the columns rejectLine, rejectOffset and rejectReason in front,
+ * so the fixed entries can be imported again by the same importer. The inserts into workerjobrejects are part of
+ * the import's transaction, the reject file isn't. So an entry handled again after a failed commit may show up
+ * twice in the file. The amount of failed entries is counted in the destination, so it covers the earlier runs
+ * of a resumed Job. Each partition of a partitioned Job reports its own, {@link #getSummary(int)} reports
+ * those of all partitions.
+ * @author Christian Chartron
+ *
+ */
+public class FailSink {
+	private final int jobId;
+	private final List<String> head;
+	private final boolean toFile;
+	private final boolean toTable;
+	private final int batchSize = Math.max(1, Settings.getIntSetting("FailSinkBatch", 500));
+	private final List<Map<String, Object>> buffer = new ArrayList<Map<String, Object>>();
+	private File file = null;
+
+	/**
+	 * @param jobId The dbId of the {@link Job} or -1.
+	 * @param head The head of the source.
+	 */
+	FailSink(int jobId, List<String> head) {
+		this.jobId = jobId;
+		this.head = head;
+		toTable = jobId != -1 && isToTable();
+		toFile = !toTable || isToFile();
+	}
+
+	/**
+	 * Buffers a failed entry.
+	 * @param line The line number or -1 if it isn't known.
+	 * @param offset The byte offset of the entry.
+	 * @param entry The entry as it is in the source, may be null.
+	 * @param reasons Why the entry failed.
+	 */
+	public synchronized void add(long line, long offset, String entry, List<String> reasons) {
+		Map<String, Object> fail = new HashMap<String, Object>();
+		fail.put("jobId", jobId);
+		fail.put("lineNo", line >= 0 ? line : null);
+		fail.put("byteOffset", offset);
+		fail.put("reason", truncate(String.join(", ", reasons), 1024));
+		fail.put("entry", entry != null ? entry : "");
+		buffer.add(fail);
+
+		if (buffer.size() >= batchSize)
+			flush();
+	}
+
+	/**
+	 * Writes the buffered entries. Call it within the transaction which commits the progress covering them.
+	 * If they couldn't be inserted into workerjobrejects, they stay buffered for the next flush.
+	 */
+	public synchronized void flush() {
+		if (buffer.isEmpty())
+			return;
+
+		if (toTable) {
+			int[] dbIds = DB.getMasterDB(db -> {
+				return db.insertBatch("workerjobrejects", buffer);
+			});
+			if (Arrays.stream(dbIds).anyMatch(id -> id == -1))
+				return;
+		}
+		if (toFile)
+			writeFile();
+
+		buffer.clear();
+	}
+
+	/**
+	 * Drops the buffered entries, e.g. after their transaction was rolled back.
+	 */
+	public synchronized void discard() {
+		buffer.clear();
+	}
+
+	/**
+	 * @return The amount of failed entries of the {@link Job}, the written ones as found in workerjobrejects or
+	 * else in the reject file plus the buffered ones.
+	 */
+	public synchronized long getCount() {
+		long count = buffer.size();
+		if (toTable)
+			count += countRows("jobId = ?", jobId);
+		else
+			count += countLines(file != null ? file : jobId != -1 ? jobFile(jobId) : null);
+		return count;
+	}
+
+	/**
+	 * @return Describes the failed entries and where they are written. Null if no entry failed.
+	 */
+	public synchronized String getSummary() {
+		long count = getCount();
+		if (count == 0)
+			return null;
+
+		List<String> targets = new ArrayList<String>();
+		if (toFile && (file != null || jobId != -1))
+			targets.add((file != null ? file : jobFile(jobId)).getAbsolutePath());
+		if (toTable)
+			targets.add("workerjobrejects");
+		return String.format("%d entries failed, see %s.", count, String.join(" and ", targets));
+	}
+
+	/**
+	 * @param parentId The dbId of a partitioned {@link Job}.
+	 * @return Describes the failed entries of all partitions and where they are written. Null if no entry
+	 * failed.
+	 */
+	static String getSummary(int parentId) {
+		boolean toTable = isToTable();
+		List<Map<String, Object>> jobs = DB.getMasterDB(db -> {
+			return db.query("Select dbId From workerjobs Where dbId = ? Or parentId = ?", parentId, parentId);
+		});
+
+		long count = 0;
+		if (toTable)
+			count = countRows("jobId In (Select dbId From workerjobs Where dbId = ? Or parentId = ?)", parentId,
+					parentId);
+		List<String> targets = new ArrayList<String>();
+		if (!toTable || isToFile()) {
+			for (Map<String, Object> job : jobs) {
+				File file = jobFile(((Number) job.get("dbId")).intValue());
+				if (!file.exists())
+					continue;
+				if (!toTable)
+					count += countLines(file);
+				targets.add(file.getAbsolutePath());
+			}
+		}
+		if (toTable)
+			targets.add("workerjobrejects");
+
+		if (count == 0)
+			return null;
+		return String.format("%d entries failed, see %s.", count, String.join(" and ", targets));
+	}
+
+	private void writeFile() {
+		try {
+			boolean created = file == null;
+			if (created) {
+				file = jobId != -1 ? jobFile(jobId) : new File(rejectDir(), "local-" + UUID.randomUUID() + ".csv");
+				file.getParentFile().mkdirs();
+				created = !file.exists();
+			}
+
+			try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+				if (created) {
+					writer.write("rejectLine;rejectOffset;rejectReason;" + String.join(";", head));
+					writer.newLine();
+				}
+
+				for (Map<String, Object> fail : buffer) {
+					Object line = fail.get("lineNo");
+					writer.write(String.format("%s;%d;%s;%s", line != null ? line : "", fail.get("byteOffset"),
+							((String) fail.get("reason")).replaceAll("[;\\r\\n]", " "), fail.get("entry")));
+					writer.newLine();
+				}
+			}
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static boolean isToTable() {
+		String target = Settings.getSetting("FailSink", "file");
+		return "table".equalsIgnoreCase(target) || "both".equalsIgnoreCase(target);
+	}
+
+	private static boolean isToFile() {
+		return !isToTable() || "both".equalsIgnoreCase(Settings.getSetting("FailSink", "file"));
+	}
+
+	private static long countRows(String where, Object... params) {
+		return DB.getMasterDB(db -> {
+			List<Map<String, Object>> res = db.query("Select Count(*) As fails From workerjobrejects Where "
+					+ where, params);
+			return res.isEmpty() ? 0L : ((Number) res.get(0).get("fails")).longValue();
+		});
+	}
+
+	private static File rejectDir() {
+		return new File(Settings.getSetting("BaseDataPath", System.getProperty("java.io.tmpdir")), "rejects");
+	}
+
+	private static File jobFile(int jobId) {
+		return new File(rejectDir(), "job-" + jobId + ".csv");
+	}
+
+	/**
+	 * @return The amount of entries in a reject file, 0 if it doesn't exist.
+	 */
+	private static long countLines(File file) {
+		if (file == null || !file.exists())
+			return 0;
+
+		try (Stream<String> lines = Files.lines(file.toPath(), StandardCharsets.UTF_8)) {
+			return Math.max(0, lines.count() - 1);
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+			return 0;
+		}
+	}
+
+	private static String truncate(String value, int length) {
+		return value.length() > length ? value.substring(0, length) : value;
+	}
+}
@@ -1,18 +1,26 @@
 package utils;
 
 import java.sql.Date;
-import java.sql.Time;
 import java.text.SimpleDateFormat;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 import com.google.gson.Gson;
 
 import utils.DB.Account;
 import utils.DB.DB;
+import utils.metrics.JobMetrics;
+import utils.metrics.Metrics;
+import utils.metrics.WorkerMetrics;
 
 /**
  * This class represents the abstract Job part of the {@link WorkerService}.
@@ -31,6 +39,8 @@ public abstract class Job implements Runnable {
 	public enum State { New, Running, Suspended, Done }
 	
 	volatile protected boolean stop = false;
+	volatile private boolean abandoned = false;
+	private boolean partitioned = false;
 	
 	volatile private State state;
 	private int dbId = -1;
@@ -38,17 +48,32 @@ public abstract class Job implements Runnable {
 	private String Operation;
 	private String savePath;	
 	private Account account;
+	private String claimToken = null;
+	private int parentId = -1;
+	private int priority = 0;
+	private final JobMetrics metrics = new JobMetrics();
 	
 	public Account getAccount() { return account; }
+	public String getClaimToken() { return claimToken; }
 	public State getState() { return state; }
 	public String getEMail() { return eMail; }
 	public String getSavePath() { return savePath; }
 	public int getDbId() { return dbId; }
+	public int getParentId() { return parentId; }
+	public int getPriority() { return priority; }
+	public JobMetrics getMetrics() { return metrics; }
 	public void stop() { stop = true; }
+	public boolean isAbandoned() { return abandoned; }
 	
 	protected void setDbId(int dbId) { this.dbId = dbId; }
 	protected void setEMail(String eMail) { this.eMail  = eMail; }
 	protected void setSavePath(String path) { savePath = path.replace("\\", "/"); }
+	
+	/**
+	 * Pending Jobs with a higher priority are claimed first, see {@link #claimPending(int)}. It is written to
+	 * DB when the Job is serialized.
+	 */
+	public void setPriority(int priority) { this.priority = priority; }
 			
 	protected Job(Account acc) {
 		account = acc;
@@ -57,24 +82,159 @@ public abstract class Job implements Runnable {
 	}
 
 	/**
-	 * Loads the next pending {@link Job} from DB. The read {@link #Operation} is used to find a constructor for
-	 * deserialization. This constructor has a signature of (int, Account, String, Map).
+	 * Claims and loads the next pending {@link Job} from DB, see {@link #claimPending(int)}.
 	 * 
 	 * @return Returns null if no {@link Job} is pending.
 	 */
 	public static Job loadNextPending() {
+		List<Job> jobs = claimPending(1);
 		
-		Map<String, Object> data;
-		data = DB.getMasterDB(db -> {
-			List<Map<String,Object>> select = db.select("workerjobs", "*",
-					"Where lockedUntil <= now() AND doneTime is NULL");
+		return jobs.isEmpty() ? null : jobs.get(0);
+	}
+	
+	/**
+	 * Claims up to max pending {@link Job}s and loads them from DB. A claim is a conditional update, which
+	 * marks the claimed row with a new claim token and locks it for JobLeaseSeconds. So a Job can't be claimed
+	 * by two workers and only the claimed rows are transferred, no matter how many are pending.
+	 * 
+	 * The order is decided by the claim: Jobs with a higher priority first, then the Jobs of the remitter with
+	 * the lowest virtual time in remittershares. Every claim adds the remaining work of the Job divided by the
+	 * remitter's weight to its virtual time, so the remitters share the workers by their weights, no matter
+	 * how many or how large Jobs one of them queues. The Jobs are claimed one by one and charged right away,
+	 * so the Jobs of one claim are shared out like the claims of several workers. Within a remitter the Jobs
+	 * are claimed in the order they were queued, or with JobShortestWorkFirst=true by their remaining work,
+	 * see {@link #getRemainingWork(Map)}.
+	 * 
+	 * The read {@link #Operation} is used to find a constructor for deserialization. This constructor has a
+	 * signature of (int, Account, String, Map).
+	 * @param max The maximum amount of Jobs to claim.
+	 * @return The claimed Jobs. Empty if no {@link Job} is pending.
+	 */
+	public static List<Job> claimPending(int max) {
+		long start = System.nanoTime();
+		
+		boolean shortestFirst = Boolean.parseBoolean(Settings.getSetting("JobShortestWorkFirst", "false"));
+		long defaultWork = Settings.getIntSetting("JobDefaultWork", 1024 * 1024);
+		
+		List<Map<String, Object>> claimed = DB.getMasterDB(db -> {
+			List<String> tokens = new ArrayList<String>();
 			
-			return select.isEmpty() ? new HashMap<String, Object>() : select.get(0);
+			for (int i = 0; i < max; i++) {
+				String token = UUID.randomUUID().toString();
+				int count = db.execute("Update workerjobs Set claimToken=?, "
+						+ "lockedUntil=DATE_ADD(now(), INTERVAL ? SECOND) "
+						+ "Where lockedUntil <= now() AND doneTime is NULL AND partitioned = 0 "
+						+ "Order By priority Desc, COALESCE((Select s.virtualTime From remittershares s "
+						+ "Where s.remitter = workerjobs.remitter), 0), "
+						+ (shortestFirst ? "remainingWork is NULL, remainingWork, " : "") + "dbId Limit 1",
+						token, getLeaseSeconds());
+				if (count <= 0)
+					break;
+				
+				chargeShare(db, token, defaultWork);
+				tokens.add(token);
+			}
+			
+			if (tokens.isEmpty())
+				return new ArrayList<Map<String, Object>>();
+			
+			return db.select("workerjobs", "*", "Where claimToken In ("
+					+ String.join(", ", Collections.nCopies(tokens.size(), "?")) + ")", tokens.toArray());
+		});
+		WorkerMetrics.get().claimed(claimed.size(), start);
+		
+		List<Job> jobs = new ArrayList<Job>();
+		for (Map<String, Object> data : claimed) {
+			Job job = deserialize(data);
+			if (job != null) {
+				job.claimToken = (String) data.get("claimToken");
+				jobs.add(job);
+				WorkerMetrics.get().jobResumed();
+			}
+		}
+		
+		return jobs;
+	}
+	
+	/**
+	 * Adds the remaining work of the Job claimed with the given token to the virtual time of its remitter. A
+	 * Job of unknown size is charged JobDefaultWork.
+	 */
+	private static void chargeShare(DB db, String token, long defaultWork) {
+		db.execute("Insert into remittershares(remitter, virtualTime) "
+				+ "Select remitter, GREATEST(COALESCE(remainingWork, ?), 1) From workerjobs Where claimToken = ? "
+				+ "On Duplicate Key Update "
+				+ "virtualTime = virtualTime + CEIL(VALUES(virtualTime) / GREATEST(weight, 1))",
+				defaultWork, token);
+	}
+	
+	/**
+	 * Lets a remitter which had no pending Job start at the lowest virtual time of the remitters with pending
+	 * Jobs. So it competes fairly from now on, instead of catching up on the time it was idle or being behind
+	 * by the work of its former Jobs.
+	 */
+	private static void joinShares(DB db, int remitter) {
+		if (!db.query("Select 1 From workerjobs Where remitter = ? AND doneTime is NULL AND partitioned = 0 "
+				+ "Limit 1", remitter).isEmpty())
+			return;
+		
+		List<Map<String, Object>> data = db.query("Select MIN(s.virtualTime) As floor From remittershares s "
+				+ "Where s.remitter <> ? AND Exists (Select 1 From workerjobs j Where j.remitter = s.remitter "
+				+ "AND j.doneTime is NULL AND j.partitioned = 0)", remitter);
+		
+		Object floor = data.isEmpty() ? null : data.get(0).get("floor");
+		db.execute("Insert into remittershares(remitter, virtualTime) Values(?, ?) "
+				+ "On Duplicate Key Update virtualTime = GREATEST(virtualTime, VALUES(virtualTime))",
+				remitter, floor != null ? ((Number) floor).longValue() : 0L);
+	}
+	
+	/**
+	 * The version of the job queue is bumped by every suspended or newly serialized {@link Job}. Reading it is
+	 * a primary key lookup of a single row, so it is a cheap signal whether something changed. It is read from
+	 * a read replica if one is configured, a change shows up with the replica's lag then.
+	 * @return -1 if the version couldn't be read.
+	 */
+	public static long loadQueueVersion() {
+		List<Map<String, Object>> data = DB.getReadDB(db -> {
+			return db.select("jobqueue", "version", "Where id = 1");
 		});
 		
-		if (data.isEmpty())
-			return null;
+		return data.isEmpty() ? -1 : ((Number) data.get(0).get("version")).longValue();
+	}
+	
+	/**
+	 * @return The amount of pending {@link Job}s, whether they are locked or not. -1 if it couldn't be read.
+	 */
+	public static long countPending() {
+		List<Map<String, Object>> data = DB.getReadDB(db -> {
+			return db.query("Select count(*) As pending From workerjobs Where doneTime is NULL AND partitioned = 0");
+		});
 		
+		return data.isEmpty() ? -1 : ((Number) data.get(0).get("pending")).longValue();
+	}
+	
+	/**
+	 * @return The milliseconds until the lock of the next pending {@link Job} expires. 0 if one is due already,
+	 * -1 if no Job is pending.
+	 */
+	public static long loadMillisUntilDue() {
+		List<Map<String, Object>> data = DB.getReadDB(db -> {
+			return db.query("Select TIMESTAMPDIFF(SECOND, now(), MIN(lockedUntil)) As dueIn From workerjobs "
+					+ "Where doneTime is NULL AND partitioned = 0");
+		});
+		
+		Object dueIn = data.isEmpty() ? null : data.get(0).get("dueIn");
+		return dueIn == null ? -1 : Math.max(0, ((Number) dueIn).longValue() * 1000);
+	}
+	
+	/**
+	 * @return The duration a claimed {@link Job} is locked for. Configured by JobLeaseSeconds.
+	 */
+	protected static int getLeaseSeconds() {
+		return Settings.getIntSetting("JobLeaseSeconds", 600);
+	}
+	
+	private static Job deserialize(Map<String, Object> data) {
 		int dbId = (int) data.get("dbId");
 		Account rem = Account.load((int) data.get("remitter"));
 		String mail = (String) data.get("mail");		
@@ -87,12 +247,14 @@ public abstract class Job implements Runnable {
 			job = (Job) Class.forName((String) data.get("operation"))
 					.getConstructor(int.class, Account.class, String.class, Map.class)
 					.newInstance(dbId, rem, mail, args);
+			if (data.get("parentId") != null)
+				job.parentId = (int) data.get("parentId");
+			if (data.get("priority") != null)
+				job.priority = (int) data.get("priority");
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 		
-		job.lockUntil(new Time(600000));
-		
 		return job;
 	}
 	
@@ -117,7 +279,8 @@ public abstract class Job implements Runnable {
 				worker.join(1000);
 				if (worker.isAlive()) {
 					worker.interrupt();
-					suspend();
+					if (!abandoned)
+						suspend();
 				}
 			}
 		}
@@ -127,36 +290,87 @@ public abstract class Job implements Runnable {
 	}
 	
 	/**
-	 * Locks the {@link Job} and prevent it to get loaded before the 'time' is elapsed.
-	 * @param time Renews the Lock for the given Time.
+	 * Locks the {@link Job} and prevent it to get loaded before the given {@link Duration} is elapsed. The
+	 * lock is computed by the DB, so the clocks of the workers don't matter.
+	 * @param duration Renews the Lock for the given Duration.
 	 */
-	public void lockUntil(Time time) {
+	public void lockUntil(Duration duration) {
 		DB.getMasterDB(db -> {
-			Date lock = new Date(Calendar.getInstance().getTimeInMillis() + time.getTime());
-			String strLock = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(lock);
+			db.execute("Update workerjobs Set lockedUntil=DATE_ADD(now(), INTERVAL ? SECOND) Where dbId=?",
+					duration.getSeconds(), dbId);
+		});
+	}
+	
+	/**
+	 * Renews the leases of all given claimed {@link Job}s with a single update. A lease is only renewed if the
+	 * Job still carries the claim token it was claimed with and isn't done.
+	 * @param jobs The claimed Jobs.
+	 * @return The dbIds of the renewed Jobs. Null if the update failed, so no statement about the leases can
+	 * be made.
+	 */
+	static Set<Integer> renewLeases(List<Job> jobs) {
+		String tuples = String.join(",", Collections.nCopies(jobs.size(), "(?,?)"));
+		Object[] keys = new Object[jobs.size() * 2];
+		for (int i = 0; i < jobs.size(); i++) {
+			keys[i * 2] = jobs.get(i).dbId;
+			keys[i * 2 + 1] = jobs.get(i).claimToken;
+		}
+		Object[] params = new Object[keys.length + 1];
+		params[0] = getLeaseSeconds();
+		System.arraycopy(keys, 0, params, 1, keys.length);
+		
+		return DB.getMasterDB(db -> {
+			int count = db.execute("Update workerjobs Set lockedUntil=DATE_ADD(now(), INTERVAL ? SECOND) "
+					+ "Where doneTime is NULL AND (dbId, claimToken) In (" + tuples + ")", params);
+			if (count < 0)
+				return null;
 			
-			Map<String, Object> data = new HashMap<String, Object>() {
-				{
-					put("lockedUntil", strLock);
-				}
-			};
-			db.update("workerjobs", "dbId=" + dbId, data);
+			Set<Integer> renewed = new HashSet<Integer>();
+			if (count == jobs.size()) {
+				for (Job job : jobs)
+					renewed.add(job.dbId);
+			}
+			else {
+				for (Map<String, Object> row : db.select("workerjobs", "dbId",
+						"Where doneTime is NULL AND (dbId, claimToken) In (" + tuples + ")", keys))
+					renewed.add((Integer) row.get("dbId"));
+			}
+			return renewed;
 		});
-	}	
+	}
+	
+	/**
+	 * Stops the {@link Job} after its lease got lost. The Job may be claimed by another worker already, so
+	 * neither its state nor its doneTime is written to DB anymore.
+	 */
+	void abandon() {
+		abandoned = true;
+		stop = true;
+		WorkerMetrics.get().jobAbandoned();
+	}
 	
 	/**
 	 * Extended from {@link Runnable} interface. Use this method to let this Job run without time limitations.
-	 * The Job doesn't get serialized to DB. 
+	 * The Job doesn't get serialized to DB. While it runs, its {@link JobMetrics} are registered as MBean.
 	 */
 	public void run() {
+		String mbean = String.format("type=Job,operation=%s,id=%s", getClass().getSimpleName(),
+				dbId != -1 ? Integer.toString(dbId) : "local-" + System.identityHashCode(this));
 		try {
 			if (state == State.Done)
 				return;
 			
 			state = State.Running;
+			metrics.start();
+			Metrics.register(mbean, metrics);
+			DB.setReadYourWrites(readsOwnWrites());
 			runInternal();
 
-			if (!stop)
+			if (abandoned)
+				System.out.println("Job: " + dbId + " lost its lease and is ABANDONED.");
+			else if (partitioned)
+				System.out.println("Job: " + dbId + " is PARTITIONED.");
+			else if (!stop)
 				done();				
 			else if (stop)
 				suspend();
@@ -164,6 +378,10 @@ public abstract class Job implements Runnable {
 		catch (Exception e) {
 			e.printStackTrace();
 		}
+		finally {
+			DB.setReadYourWrites(false);
+			Metrics.unregister(mbean);
+		}
 	}
 	
 	/**
@@ -176,31 +394,41 @@ public abstract class Job implements Runnable {
 				Date lock = new Date(Calendar.getInstance().getTimeInMillis() + 60000);
 				String strLock = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(lock);
 								
+				Map<String, Object> args = getSerializiationData();
+				
 				if (dbId == -1) {
 					Map<String, Object> data = new HashMap<String, Object>() {
 						{
 							put("remitter", account.getDbId());
 							put("Operation", Operation);
-							put("arguments", new Gson().toJson(getSerializiationData()));
+							put("arguments", new Gson().toJson(args));
 							put("mail", account.getMail());
 							put("lockedUntil", strLock);
+							put("priority", priority);
+							put("remainingWork", remainingWork(args));
 						}
 					};
+					joinShares(db, account.getDbId());
 					db.insert("workerjobs", data);
 				}
 				else
 				{
 					Map<String, Object> data = new HashMap<String, Object>() {
 						{
-							put("arguments", new Gson().toJson(getSerializiationData()));
+							put("arguments", new Gson().toJson(args));
 							put("lockedUntil", strLock);
+							put("priority", priority);
+							put("remainingWork", remainingWork(args));
 						}
 					};					
-					db.update("workerjobs", "dbId=" + dbId, data);
+					db.update("workerjobs", "dbId=?", data, dbId);
 				}
+				
+				db.execute("Update jobqueue Set version = version + 1 Where id = 1");
 			});
 			
 			state = State.Suspended;
+			WorkerMetrics.get().jobSuspended();
 
 			System.out.println("Job: " + (dbId != -1 ? Integer.toString(dbId) : "local") + " is SUSPENDED.");
 		}
@@ -209,6 +437,105 @@ public abstract class Job implements Runnable {
 		}
 	}
 	
+	/**
+	 * Writes the given serialization data of the running {@link Job} to DB, without suspending it. Within a
+	 * {@link DB.Session} it is committed together with the work it describes.
+	 * @param data See {@link #getSerializiationData()}.
+	 * @return False if the {@link Job} has been abandoned or claimed by another worker meanwhile. The work the
+	 * checkpoint describes must be rolled back then.
+	 */
+	protected boolean saveProgress(Map<String, Object> data) {
+		if (dbId == -1)
+			return true;
+		if (abandoned)
+			return false;
+		
+		return DB.getMasterDB(db -> {
+			Map<String, Object> update = new HashMap<String, Object>();
+			update.put("arguments", new Gson().toJson(data));
+			update.put("remainingWork", remainingWork(data));
+			return db.update("workerjobs", "dbId=? AND claimToken <=> ?", update, dbId, claimToken) == 1;
+		});
+	}
+	
+	/**
+	 * Splits this {@link Job} into partitions, which are serialized as new Jobs with this Job as parent. They
+	 * are claimed like any other Job, so free workers run them in parallel. This Job itself isn't claimed
+	 * anymore, it is done as soon as the last of its partitions is done. The Job has to stop working if the
+	 * partitioning succeeded.
+	 * @param partitions The serialization data of every partition, see {@link #getSerializiationData()}.
+	 * @return False if this Job isn't serialized, isn't owned by this worker anymore or the partitions couldn't
+	 * be stored. Nothing is changed then.
+	 */
+	protected boolean partition(List<Map<String, Object>> partitions) {
+		if (dbId == -1 || partitions.isEmpty())
+			return false;
+		
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		for (Map<String, Object> args : partitions) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("remitter", account.getDbId());
+			row.put("Operation", Operation);
+			row.put("arguments", new Gson().toJson(args));
+			row.put("mail", account.getMail());
+			row.put("parentId", dbId);
+			row.put("priority", priority);
+			row.put("remainingWork", remainingWork(args));
+			rows.add(row);
+		}
+		
+		partitioned = DB.getMasterDB(db -> {
+			boolean joined = db.inSession();
+			DB.Session session = joined ? null : db.openSession(Integer.MAX_VALUE, Long.MAX_VALUE);
+			if (!joined && session == null)
+				return false;
+			
+			try {
+				// flagged and inserted in one transaction, so no partition can run without its flagged parent
+				if (db.execute("Update workerjobs Set partitioned = 1 Where dbId=? AND claimToken <=> ?", dbId,
+						claimToken) != 1)
+					return false;
+				
+				if (Arrays.stream(db.insertBatch("workerjobs", rows)).anyMatch(id -> id == -1)) {
+					if (joined)
+						db.execute("Update workerjobs Set partitioned = 0 Where dbId=?", dbId);
+					return false;
+				}
+				
+				db.execute("Update jobqueue Set version = version + 1 Where id = 1");
+				return joined || session.commit();
+			}
+			finally {
+				if (session != null)
+					session.close();
+			}
+		});
+		
+		if (partitioned)
+			completeParent(dbId);
+		
+		return partitioned;
+	}
+	
+	/**
+	 * Marks the partitioned {@link Job} done if none of its partitions is pending anymore. This is a single
+	 * conditional update, so it doesn't matter which partition finishes last. The one completing it reports
+	 * the outcome of all partitions, see {@link #getPartitionedSummary(int)}.
+	 */
+	private void completeParent(int parentId) {
+		int completed = DB.getMasterDB(db -> {
+			return db.execute("Update workerjobs Set doneTime = now() "
+					+ "Where dbId=? AND partitioned = 1 AND doneTime is NULL AND 0 = ("
+					+ "Select pending From (Select count(*) As pending From workerjobs "
+					+ "Where parentId=? AND doneTime is NULL) As partitions)", parentId, parentId);
+		});
+		
+		if (completed == 1) {
+			String summary = getPartitionedSummary(parentId);
+			System.out.println("Job: " + parentId + " is DONE." + (summary != null ? " " + summary : ""));
+		}
+	}
+	
 	/**
 	 * Updates the doneTime column in workerjobs table. Doesn't do any clean up since this should do
 	 * the administrator on maintenance.
@@ -223,12 +550,59 @@ public abstract class Job implements Runnable {
 						put("doneTime", strNow);
 					}
 				};			
-				db.update("workerjobs", "dbId=" + dbId, data);
+				db.update("workerjobs", "dbId=?", data, dbId);
 			});
 			state = State.Done;
 		}		
 		
-		System.out.println("Job: " + (dbId != -1 ? Integer.toString(dbId) : "local") + " is DONE.");		
+		String summary = getSummary();
+		System.out.println("Job: " + (dbId != -1 ? Integer.toString(dbId) : "local") + " is DONE."
+				+ (summary != null ? " " + summary : ""));
+		
+		if (dbId != -1 && parentId != -1)
+			completeParent(parentId);
+	}
+	
+	/**
+	 * Override this to report the outcome of the Job when it is done, e.g. the amount of failed entries.
+	 * @return Null if there is nothing to report.
+	 */
+	protected String getSummary() {
+		return null;
+	}
+	
+	/**
+	 * Override this to report the outcome of a partitioned Job when its last partition is done, like
+	 * {@link #getSummary()} but over all of its partitions.
+	 * @param parentId The dbId of the partitioned Job.
+	 * @return Null if there is nothing to report.
+	 */
+	protected String getPartitionedSummary(int parentId) {
+		return null;
+	}
+	
+	/**
+	 * Override this to let the scheduler know how much work is left, see {@link #claimPending(int)}. The unit
+	 * is up to the Job, but should be comparable between the Jobs of a remitter.
+	 * @param data The serialization data the Job is resumed from, see {@link #getSerializiationData()}.
+	 * @return -1 if it isn't known.
+	 */
+	protected long getRemainingWork(Map<String, Object> data) {
+		return -1;
+	}
+	
+	private Long remainingWork(Map<String, Object> data) {
+		long work = getRemainingWork(data);
+		return work >= 0 ? work : null;
+	}
+	
+	/**
+	 * Override this if the Job reads rows it wrote itself, e.g. to check for duplicates. Its reads are routed
+	 * to the master DB then instead of a read replica, see {@link DB#getReadDB(java.util.function.Function)}.
+	 * @return JobReadYourWrites by default, false if it isn't set.
+	 */
+	protected boolean readsOwnWrites() {
+		return Boolean.parseBoolean(Settings.getSetting("JobReadYourWrites", "false"));
 	}
 	
 	/**
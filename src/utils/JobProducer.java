@@ -1,43 +1,95 @@
 package utils;
 
+import java.util.ArrayDeque;
 import java.util.Iterator;
+import java.util.function.IntSupplier;
 
 /**
  * Produces the {@link Job}s for the {@link WorkerService}. Since this class only provides the ability to load
  * a {@link Job} and provide information about whether there is a next one or not, this class implements the
  * {@link Iterable} interface. Because there is the possibility of running multiple Producers, the next() method
  * is synchronized.
+ * 
+ * Jobs are claimed in batches of up to ClaimBatchSize by {@link Job#claimPending(int)} and handed out from a
+ * local buffer, so a poll costs one claim no matter how many Jobs are pending. A batch is never larger than
+ * the demand of the consumer, see {@link #limitClaims(IntSupplier)}, since the lease of a buffered Job isn't
+ * renewed and it would be claimed by another worker as soon as it expired. After a claim came back empty, the
+ * producer only reads the {@link Job#loadQueueVersion()} until it changes or the next locked Job gets due. If
+ * neither happens, it claims again after a back-off which doubles from PollMinMillis up to PollMaxMillis, in
+ * case a change of the queue went unnoticed, e.g. since the version couldn't be read.
+ * Which Jobs are claimed is decided by the claim query, by priority and a fair share per remitter, see
+ * {@link Job#claimPending(int)}.
  * @author Christian Chartron
  *
  */
 public class JobProducer implements Iterable<Job> {	
+	private final int claimBatchSize = Settings.getIntSetting("ClaimBatchSize",
+			Settings.getIntSetting("MaxConsumer", 1));
+	private volatile IntSupplier demand = () -> Integer.MAX_VALUE;
+	private final long minBackoffMillis = Settings.getIntSetting("PollMinMillis", 100);
+	private final long maxBackoffMillis = Settings.getIntSetting("PollMaxMillis", 30000);
+	
+	/**
+	 * @param demand Returns the amount of Jobs the consumer starts right away, e.g. its free slots. No more
+	 * Jobs are claimed at once.
+	 */
+	public void limitClaims(IntSupplier demand) {
+		this.demand = demand;
+	}
+	
 	@Override
 	public Iterator<Job> iterator() {
 		Iterator<Job> it = new Iterator<Job>() {
-			private Job next = null;
+			private final ArrayDeque<Job> claimed = new ArrayDeque<Job>();
+			private long knownVersion = -1;
+			private long dueAt = 0;
+			private long backoffMillis = minBackoffMillis;
 			
 		    private final Object lock = new Object();
 			
 			@Override
 			public boolean hasNext() {
 				synchronized (lock) {
-					if (next == null)
-						next = Job.loadNextPending();
+					if (claimed.isEmpty())
+						claim();
 					
-					return next != null;
+					return !claimed.isEmpty();
 				}
 			}
 
 			@Override
 			public Job next() {
 				synchronized (lock) {
-					if (next == null)
-						next = Job.loadNextPending();						
+					if (claimed.isEmpty())
+						claim();
 
-					Job ret = next;
-					next = null;
-					
-					return ret;
+					return claimed.poll();
+				}
+			}
+			
+			private void claim() {
+				int max = Math.min(claimBatchSize, demand.getAsInt());
+				if (max <= 0)
+					return;
+				
+				long version = Job.loadQueueVersion();
+				boolean changed = version != -1 && version != knownVersion;
+				if (version != -1)
+					knownVersion = version;
+				
+				if (!changed && System.currentTimeMillis() < dueAt)
+					return;
+				
+				claimed.addAll(Job.claimPending(max));
+				
+				if (!claimed.isEmpty()) {
+					dueAt = 0;
+					backoffMillis = minBackoffMillis;
+				}
+				else {
+					long dueIn = Job.loadMillisUntilDue();
+					dueAt = System.currentTimeMillis() + (dueIn < 0 ? backoffMillis : Math.min(dueIn, backoffMillis));
+					backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
 				}
 			}
 		};
@@ -0,0 +1,75 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the leases of all running {@link Job}s of a {@link WorkerService} alive. A single scheduler thread
+ * renews the leases every third of JobLeaseSeconds, with one update for all registered Jobs. So the amount of
+ * lease writes doesn't grow with the amount of running Jobs.
+ *
+ * A Job whose lease couldn't be renewed was claimed by another worker or finished in the meantime. It gets
+ * abandoned, see {@link Job#abandon()}.
+ * @author Christian Chartron
+ *
+ */
+public class LeaseManager {
+	private final Set<Job> jobs = ConcurrentHashMap.newKeySet();
+	private final ScheduledExecutorService scheduler;
+
+	public LeaseManager() {
+		long period = Math.max(1, Job.getLeaseSeconds() / 3);
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "LeaseManager");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleAtFixedRate(this::renew, period, period, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Renews the lease of the given {@link Job} until it gets unregistered. Jobs which weren't claimed from
+	 * DB are ignored.
+	 */
+	public void register(Job job) {
+		if (job.getDbId() != -1 && job.getClaimToken() != null)
+			jobs.add(job);
+	}
+
+	public void unregister(Job job) {
+		jobs.remove(job);
+	}
+
+	public void shutdown() {
+		scheduler.shutdown();
+	}
+
+	private void renew() {
+		try {
+			List<Job> leased = new ArrayList<Job>(jobs);
+			if (leased.isEmpty())
+				return;
+
+			Set<Integer> renewed = Job.renewLeases(leased);
+			if (renewed == null)
+				return;
+
+			for (Job job : leased) {
+				if (!renewed.contains(job.getDbId()) && jobs.remove(job)) {
+					System.out.println(String.format("Worker: Lease of Job %s lost", job.getDbId()));
+					job.abandon();
+				}
+			}
+		}
+		catch (Exception e) {
+			// an exception would cancel all further renewals
+			e.printStackTrace();
+		}
+	}
+}
@@ -47,4 +47,26 @@ public class Settings {
 	public static String getSetting(String key) {
 		return settings.get(key);
 	}
+	
+	/**
+	 * Request a configuration by key.
+	 * @param key The setting you want to get.
+	 * @param defaultValue Is returned if the setting isn't configured.
+	 * @return
+	 */
+	public static String getSetting(String key, String defaultValue) {
+		String value = settings.get(key);
+		return value != null ? value : defaultValue;
+	}
+	
+	/**
+	 * Request a numeric configuration by key.
+	 * @param key The setting you want to get.
+	 * @param defaultValue Is returned if the setting isn't configured.
+	 * @return
+	 */
+	public static int getIntSetting(String key, int defaultValue) {
+		String value = settings.get(key);
+		return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+	}
 }
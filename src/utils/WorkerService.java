@@ -2,81 +2,178 @@ package utils;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.Thread.State;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import utils.DB.DB;
+import utils.metrics.WorkerMetrics;
 
 /**
  * This Service polls the {@link JobProducer} for pending {@link Job}s. It loads the MaxConsumer amount of
  * Jobs and execute them. The MaxConsumer amount can be set in the settings.config.
+ *
+ * The Jobs are executed by an {@link ExecutorService}. A finished Job releases its slot and wakes the service
+ * up, so the slot is refilled immediately. With WorkerThreads=virtual, each Job runs on a virtual thread if
+ * the JVM supports them (Java 21+). Since these are cheap, up to MaxVirtualConsumer Jobs are admitted, which
+ * pays off for Jobs mostly waiting on I/O. Either way no more Jobs are admitted than the connection pool
+ * of the DB can serve, see {@link DB#getJobCapacity()}.
+ *
+ * The producer is polled every PollMinMillis while a slot is free. That is cheap, since it only reads the
+ * version of the queue unless the queue changed, see {@link JobProducer}. So a new Job is noticed within
+ * PollMinMillis, only the claims of an unchanged queue are backed off.
+ *
+ * The leases of the running Jobs are renewed by a {@link LeaseManager}. The counts of running and idle slots
+ * are published by the {@link WorkerMetrics}.
  * @author Christian Chartron
  *
  */
-public class WorkerService {	
-	private List<Thread> workers = new ArrayList<Thread>();
+public class WorkerService {
+	private static final long INPUT_MILLIS = 1000;
+
+	private ExecutorService executor = null;
+	private Semaphore slots = null;
+	private LeaseManager leases = null;
 	private Iterator<Job> producer = null;
 	private boolean stop = false;
-	
+
 	private int maxConsumer = 0;
-	
+	private final long pollMillis = Settings.getIntSetting("PollMinMillis", 100);
+	private final AtomicInteger running = new AtomicInteger();
+	private final Object signal = new Object();
+	private boolean slotReleased = false;
+	private final WorkerMetrics metrics = WorkerMetrics.get();
+
 	public WorkerService(JobProducer producer) {
+		producer.limitClaims(() -> slots.availablePermits());
 		this.producer = producer.iterator();
 		maxConsumer = Integer.parseInt(Settings.getSetting("MaxConsumer"));
-		
+
+		if ("virtual".equalsIgnoreCase(Settings.getSetting("WorkerThreads", "platform")))
+			executor = newVirtualThreadExecutor();
+
+		if (executor != null)
+			maxConsumer = Settings.getIntSetting("MaxVirtualConsumer", maxConsumer * 10);
+		if (maxConsumer > DB.getJobCapacity()) {
+			System.out.println(String.format("Worker: Admits %d Jobs only, the DB pool has %d connections.",
+					DB.getJobCapacity(), DB.MAX_CONNECTIONS));
+			maxConsumer = DB.getJobCapacity();
+		}
+		if (executor == null)
+			executor = Executors.newFixedThreadPool(maxConsumer);
+		slots = new Semaphore(maxConsumer);
+		leases = new LeaseManager();
+		metrics.setWorker(running::get, slots::availablePermits);
+		metrics.setQueue(Job::countPending);
+
 		run();
 	}
-	
+
+	/**
+	 * Looks up Executors.newVirtualThreadPerTaskExecutor() by reflection, since it isn't available before
+	 * Java 21.
+	 * @return Null if the JVM doesn't support virtual threads.
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (ReflectiveOperationException e) {
+			System.out.println("Worker: Virtual threads aren't supported, using platform threads.");
+			return null;
+		}
+	}
+
 	private void run() {
 		System.out.println("Any input ends the WorkerService");
-		Scanner in = new Scanner(System.in);
 		InputStream inp = System.in;
-		
-		while (!stop && timeout(5)) {
-			cleanJobs();
-			produceJobs();
-			System.out.println(workers.size() + " Consumer running.");
+
+		long nextPoll = 0;
+
+		while (!stop) {
+			if (System.currentTimeMillis() >= nextPoll) {
+				if (produceJobs())
+					System.out.println(running.get() + " Consumer running.");
+
+				nextPoll = System.currentTimeMillis() + pollMillis;
+			}
+
+			long wait = Math.max(1, Math.min(nextPoll - System.currentTimeMillis(), INPUT_MILLIS));
+			if (awaitSlot(wait))
+				nextPoll = 0;
 			try {
 				stop = (inp.available() > 0);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
+
+		executor.shutdown();
+		leases.shutdown();
 	}
-	
-	private void cleanJobs() {
-		if (workers.isEmpty())
-			return;
-		
-		workers.removeIf(w -> {
-			if (w.getState() == State.TERMINATED) {
-				System.out.println(String.format("Worker: Consumer %s finished",
-						workers.indexOf(w)));
-				return true;
-			}
-			else
-				return false;
-			});
+
+	/**
+	 * Fills all free slots with pending Jobs.
+	 * @return True if a Job was started.
+	 */
+	private boolean produceJobs() {
+		boolean started = false;
+
+		// the producer claims no more Jobs than there are free slots, they are started right away
+		while (slots.availablePermits() > 0 && producer.hasNext()) {
+			if (!slots.tryAcquire())
+				break;
+
+			Job job = producer.next();
+			running.incrementAndGet();
+			metrics.jobStarted();
+			leases.register(job);
+			CompletableFuture.runAsync(job, executor).whenComplete((result, e) -> finished(job, e));
+
+			System.out.println(String.format("Worker: Job %s started", job.getDbId()));
+			started = true;
+		}
+
+		return started;
 	}
-	
-	private void produceJobs() {			
-		while (workers.size() < maxConsumer && producer.hasNext()) {
-			Thread worker = new Thread(producer.next());
-			workers.add(worker);
-			
-			worker.start();
-			System.out.println(String.format("Worker: Consumer %s started",
-					workers.indexOf(worker)));
-		}		
+
+	/**
+	 * Completion callback of a Job. Releases its slot and wakes up the service.
+	 */
+	private void finished(Job job, Throwable e) {
+		if (e != null)
+			e.printStackTrace();
+
+		leases.unregister(job);
+		running.decrementAndGet();
+		metrics.jobFinished();
+		slots.release();
+		System.out.println(String.format("Worker: Job %s finished", job.getDbId()));
+
+		synchronized (signal) {
+			slotReleased = true;
+			signal.notifyAll();
+		}
 	}
-	
-	private boolean timeout(int seconds) {
-		try {
-			Thread.currentThread().join(seconds * 1000);
-		} catch (InterruptedException e) {
-			System.out.println(String.format("Worker: Timeout error: %s", e.toString()));
+
+	/**
+	 * Waits until a slot gets released or the given time is elapsed.
+	 * @return True if a slot got released.
+	 */
+	private boolean awaitSlot(long millis) {
+		synchronized (signal) {
+			try {
+				if (!slotReleased)
+					signal.wait(millis);
+			} catch (InterruptedException e) {
+				System.out.println(String.format("Worker: Timeout error: %s", e.toString()));
+			}
+			boolean released = slotReleased;
+			slotReleased = false;
+			return released;
 		}
-		return true;
 	}
 }
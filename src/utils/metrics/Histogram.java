@@ -0,0 +1,65 @@
+package utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non negative values, e.g. durations in nanoseconds. The values are counted in
+ * buckets of powers of two, so recording a value is a few atomic increments and percentiles are exact up to
+ * a factor of two. Cheap enough to be updated for every row of an import.
+ * @author Christian Chartron
+ *
+ */
+public class Histogram {
+	private final AtomicLongArray buckets = new AtomicLongArray(65);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * @param value Negative values are counted as 0.
+	 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+		count.increment();
+		sum.add(value);
+	}
+
+	/**
+	 * Records the time elapsed since the given {@link System#nanoTime()}.
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public double getMean() {
+		long n = count.sum();
+		return n > 0 ? (double) sum.sum() / n : 0;
+	}
+
+	/**
+	 * @param percentile Between 0 and 100.
+	 * @return The upper bound of the bucket containing the percentile, 0 if nothing is recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		long[] counts = new long[buckets.length()];
+		for (int i = 0; i < counts.length; i++)
+			total += counts[i] = buckets.get(i);
+		if (total == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank && counts[i] > 0)
+				return i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE : (1L << i) - 1;
+		}
+		return Long.MAX_VALUE;
+	}
+}
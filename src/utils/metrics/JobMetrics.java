@@ -0,0 +1,98 @@
+package utils.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of a single running {@link utils.Job}, registered as utils:type=Job while it runs. The rows
+ * are counted by {@link LongAdder}s and the stage times by {@link Histogram}s, both can be updated for every
+ * row by any amount of threads.
+ * @author Christian Chartron
+ *
+ */
+public class JobMetrics implements JobMetricsMBean {
+	private final LongAdder rows = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final Histogram handleEntry = new Histogram();
+	private final Histogram validate = new Histogram();
+	private final Histogram write = new Histogram();
+	private volatile long startNanos = System.nanoTime();
+
+	/**
+	 * Restarts the rate, a Job is run again after it has been suspended.
+	 */
+	public void start() {
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * @param startNanos The {@link System#nanoTime()} the handling of the entry started.
+	 * @param failed Whether the entry failed.
+	 */
+	public void entryHandled(long startNanos, boolean failed) {
+		handleEntry.recordSince(startNanos);
+		rows.increment();
+		if (failed)
+			this.failed.increment();
+	}
+
+	public void entryValidated(long startNanos) {
+		validate.recordSince(startNanos);
+	}
+
+	/**
+	 * @param startNanos The {@link System#nanoTime()} the write of the batch started.
+	 * @param entries The amount of entries written by the batch.
+	 * @param failed The amount of failed entries of the batch.
+	 */
+	public void batchWritten(long startNanos, int entries, int failed) {
+		write.recordSince(startNanos);
+		rows.add(entries);
+		this.failed.add(failed);
+	}
+
+	@Override
+	public long getRows() {
+		return rows.sum();
+	}
+
+	@Override
+	public long getFailedRows() {
+		return failed.sum();
+	}
+
+	@Override
+	public double getRowsPerSecond() {
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		return seconds > 0 ? rows.sum() / seconds : 0;
+	}
+
+	@Override
+	public double getHandleEntryMeanMicros() {
+		return handleEntry.getMean() / 1000;
+	}
+
+	@Override
+	public double getHandleEntryP99Micros() {
+		return handleEntry.getPercentile(99) / 1000.0;
+	}
+
+	@Override
+	public double getValidateMeanMicros() {
+		return validate.getMean() / 1000;
+	}
+
+	@Override
+	public double getValidateP99Micros() {
+		return validate.getPercentile(99) / 1000.0;
+	}
+
+	@Override
+	public double getWriteMeanMillis() {
+		return Metrics.toMillis(write.getMean());
+	}
+
+	@Override
+	public double getWriteP99Millis() {
+		return Metrics.toMillis(write.getPercentile(99));
+	}
+}
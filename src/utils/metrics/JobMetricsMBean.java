@@ -0,0 +1,26 @@
+package utils.metrics;
+
+/**
+ * The management interface of {@link JobMetrics}.
+ * @author Christian Chartron
+ *
+ */
+public interface JobMetricsMBean {
+	long getRows();
+
+	long getFailedRows();
+
+	double getRowsPerSecond();
+
+	double getHandleEntryMeanMicros();
+
+	double getHandleEntryP99Micros();
+
+	double getValidateMeanMicros();
+
+	double getValidateP99Micros();
+
+	double getWriteMeanMillis();
+
+	double getWriteP99Millis();
+}
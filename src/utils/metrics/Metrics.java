@@ -0,0 +1,55 @@
+package utils.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers the metrics of this project as MBeans of the platform MBean server, so they can be watched with
+ * any JMX client like jconsole. All MBeans are registered within the domain 'utils'.
+ * @author Christian Chartron
+ *
+ */
+public final class Metrics {
+	private static final String DOMAIN = "utils";
+
+	private Metrics() {
+	}
+
+	/**
+	 * Registers the given MBean, an already registered MBean of the same name is replaced.
+	 * @param properties The key properties of the name, e.g. "type=Worker".
+	 * @param mbean A standard MBean.
+	 */
+	public static void register(String properties, Object mbean) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(mbean, name);
+		}
+		catch (Exception e) {
+			System.out.println(String.format("Metrics: Register '%s' failed: %s", properties, e.toString()));
+		}
+	}
+
+	public static void unregister(String properties) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+		}
+		catch (Exception e) {
+			System.out.println(String.format("Metrics: Unregister '%s' failed: %s", properties, e.toString()));
+		}
+	}
+
+	static double toMillis(double nanos) {
+		return nanos / 1000000;
+	}
+}
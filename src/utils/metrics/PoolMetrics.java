@@ -0,0 +1,56 @@
+package utils.metrics;
+
+import snaq.db.ConnectionPool;
+
+/**
+ * The utilization of a {@link ConnectionPool}, registered as utils:type=DBPool. Everything is read from the
+ * pool when the MBean is read.
+ * @author Christian Chartron
+ *
+ */
+public class PoolMetrics implements PoolMetricsMBean {
+	private final ConnectionPool pool;
+
+	public PoolMetrics(ConnectionPool pool) {
+		this.pool = pool;
+	}
+
+	@Override
+	public int getCheckedOut() {
+		return pool.getCheckedOut();
+	}
+
+	@Override
+	public int getSize() {
+		return pool.getSize();
+	}
+
+	@Override
+	public int getFreeCount() {
+		return pool.getFreeCount();
+	}
+
+	@Override
+	public int getMaxSize() {
+		return pool.getMaxSize();
+	}
+
+	/**
+	 * @return The share of the maximum amount of connections which is checked out.
+	 */
+	@Override
+	public double getUtilization() {
+		int max = pool.getMaxSize();
+		return max > 0 ? (double) pool.getCheckedOut() / max : 0;
+	}
+
+	@Override
+	public long getRequestCount() {
+		return pool.getRequestCount();
+	}
+
+	@Override
+	public float getHitRate() {
+		return pool.getPoolHitRate();
+	}
+}
@@ -0,0 +1,22 @@
+package utils.metrics;
+
+/**
+ * The management interface of {@link PoolMetrics}.
+ * @author Christian Chartron
+ *
+ */
+public interface PoolMetricsMBean {
+	int getCheckedOut();
+
+	int getSize();
+
+	int getFreeCount();
+
+	int getMaxSize();
+
+	double getUtilization();
+
+	long getRequestCount();
+
+	float getHitRate();
+}
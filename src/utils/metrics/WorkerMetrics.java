@@ -0,0 +1,148 @@
+package utils.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * The metrics of the job queue and the {@link utils.WorkerService} of this JVM, registered as
+ * utils:type=Worker. The counters are {@link LongAdder}s, the gauges are read when the MBean is read.
+ * @author Christian Chartron
+ *
+ */
+public class WorkerMetrics implements WorkerMetricsMBean {
+	private static WorkerMetrics instance = null;
+
+	private final LongAdder started = new LongAdder();
+	private final LongAdder finished = new LongAdder();
+	private final LongAdder claims = new LongAdder();
+	private final LongAdder claimed = new LongAdder();
+	private final LongAdder suspended = new LongAdder();
+	private final LongAdder resumed = new LongAdder();
+	private final LongAdder abandoned = new LongAdder();
+	private final Histogram claimLatency = new Histogram();
+
+	private volatile IntSupplier running = () -> 0;
+	private volatile IntSupplier idle = () -> 0;
+	private volatile LongSupplier pending = () -> -1;
+
+	private WorkerMetrics() {
+	}
+
+	/**
+	 * @return The metrics of this JVM, registered on first use.
+	 */
+	public static synchronized WorkerMetrics get() {
+		if (instance == null) {
+			instance = new WorkerMetrics();
+			Metrics.register("type=Worker", instance);
+		}
+		return instance;
+	}
+
+	/**
+	 * @param running Supplies the amount of running Jobs.
+	 * @param idle Supplies the amount of free slots.
+	 */
+	public void setWorker(IntSupplier running, IntSupplier idle) {
+		this.running = running;
+		this.idle = idle;
+	}
+
+	/**
+	 * @param pending Supplies the amount of pending Jobs. It is only called if the MBean is read.
+	 */
+	public void setQueue(LongSupplier pending) {
+		this.pending = pending;
+	}
+
+	public void jobStarted() {
+		started.increment();
+	}
+
+	public void jobFinished() {
+		finished.increment();
+	}
+
+	/**
+	 * @param jobs The amount of claimed Jobs.
+	 * @param startNanos The {@link System#nanoTime()} the claim started.
+	 */
+	public void claimed(int jobs, long startNanos) {
+		claimLatency.recordSince(startNanos);
+		claims.increment();
+		claimed.add(jobs);
+	}
+
+	public void jobSuspended() {
+		suspended.increment();
+	}
+
+	public void jobResumed() {
+		resumed.increment();
+	}
+
+	public void jobAbandoned() {
+		abandoned.increment();
+	}
+
+	@Override
+	public int getRunningJobs() {
+		return running.getAsInt();
+	}
+
+	@Override
+	public int getIdleSlots() {
+		return idle.getAsInt();
+	}
+
+	@Override
+	public long getPendingJobs() {
+		return pending.getAsLong();
+	}
+
+	@Override
+	public long getStartedJobs() {
+		return started.sum();
+	}
+
+	@Override
+	public long getFinishedJobs() {
+		return finished.sum();
+	}
+
+	@Override
+	public long getClaims() {
+		return claims.sum();
+	}
+
+	@Override
+	public long getClaimedJobs() {
+		return claimed.sum();
+	}
+
+	@Override
+	public double getClaimLatencyMeanMillis() {
+		return Metrics.toMillis(claimLatency.getMean());
+	}
+
+	@Override
+	public double getClaimLatencyP99Millis() {
+		return Metrics.toMillis(claimLatency.getPercentile(99));
+	}
+
+	@Override
+	public long getSuspendedJobs() {
+		return suspended.sum();
+	}
+
+	@Override
+	public long getResumedJobs() {
+		return resumed.sum();
+	}
+
+	@Override
+	public long getAbandonedJobs() {
+		return abandoned.sum();
+	}
+}
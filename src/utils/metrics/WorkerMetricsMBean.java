@@ -0,0 +1,32 @@
+package utils.metrics;
+
+/**
+ * The management interface of {@link WorkerMetrics}.
+ * @author Christian Chartron
+ *
+ */
+public interface WorkerMetricsMBean {
+	int getRunningJobs();
+
+	int getIdleSlots();
+
+	long getPendingJobs();
+
+	long getStartedJobs();
+
+	long getFinishedJobs();
+
+	long getClaims();
+
+	long getClaimedJobs();
+
+	double getClaimLatencyMeanMillis();
+
+	double getClaimLatencyP99Millis();
+
+	long getSuspendedJobs();
+
+	long getResumedJobs();
+
+	long getAbandonedJobs();
+}